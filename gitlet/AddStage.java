@@ -2,7 +2,9 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.file.Path;
 import java.util.*;
 
 
@@ -15,21 +17,24 @@ import java.util.*;
  * The add staging area and the remove staging area are mutually exclusive.
  * 
  * The add staging area is represented by a map object, whose
- * key is a File object and value is the string of hash value of that file.
+ * key is a File object and value is the hash value of that file.
  * 
  *
  *  @author Zichuan
  */
 public class AddStage implements Serializable, StageBasic, Dumpable {
+
+    /** Kept so that trees and the index written by older versions can still be read. */
+    private static final long serialVersionUID = 4770677218789076675L;
     /** The add staging object. */
-    private final Map<File, String> stage;
+    private final Map<File, ObjectId> stage;
 
     public AddStage() {
         stage = new TreeMap<>();
     }
 
     /** Get the add staging object. */
-    public Map<File, String> getStage() {
+    public Map<File, ObjectId> getStage() {
         return stage;
     }
 
@@ -39,7 +44,7 @@ public class AddStage implements Serializable, StageBasic, Dumpable {
     }
 
     /** Add a new (file, hash value) pair into the add staging object. */
-    public void put(File K, String V) {
+    public void put(File K, ObjectId V) {
         stage.put(K, V);
     }
 
@@ -49,13 +54,13 @@ public class AddStage implements Serializable, StageBasic, Dumpable {
     }
 
     /** Returns the hash value of a file in the add staging area. */
-    public String getHashFromFile(File K) {
+    public ObjectId getHashFromFile(File K) {
         return stage.get(K);
     }
 
     /** Returns the hash value of a file in the add staging area,
      * or defaultValue if the file doesn't exist. */
-    public String getHashFromFileOrDefault(File K, String defaultValue) {
+    public ObjectId getHashFromFileOrDefault(File K, ObjectId defaultValue) {
         return stage.getOrDefault(K, defaultValue);
     }
 
@@ -69,8 +74,20 @@ public class AddStage implements Serializable, StageBasic, Dumpable {
         return stage.isEmpty();
     }
 
+    /** Reads an add staging object written by older versions, whose hash values are strings. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        ((Map) stage).replaceAll((k, v) -> v instanceof String ? ObjectId.fromString((String) v) : v);
+    }
+
+    /** Prints the staged files relative to {@code base}, a path relative to the working directory. */
+    public void printRelativeTo(Path base) {
+        printWithHead("=== Staged Files ===", getFileSet(), base);
+    }
+
     @Override
-    public void dump() throws IOException {
-        printWithHead("=== Staged Files ===", getFileSet());
+    public void dump() {
+        printRelativeTo(Path.of(""));
     }
 }
\ No newline at end of file
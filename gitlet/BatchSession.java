@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * Runs many commands in one process, read from standard input by {@code batch} (or {@code --stdin}),
+ * so that JVM startup is paid once and the repository is opened once, so its caches stay warm between commands.
+ * Commands are separated by newlines, or by NUL characters with {@code -z}, so that arguments may contain newlines.
+ * A command is split into arguments at whitespace; single or double quotes group an argument,
+ * and a backslash outside single quotes takes the next character literally.
+ * <p>
+ * The output of every command ends with a newline and the line {@code --- exit N},
+ * followed by a NUL character with {@code -z}, where N is {@link #OK} if the command succeeded,
+ * {@link #FAILED} if it failed with a gitlet message, {@link #RETRY} if it lost a race with another process
+ * and may succeed if it is run again, and {@link #ERROR} if it failed otherwise.
+ * Other processes may change the repository meanwhile: branches and HEAD are read from disk by every command,
+ * and before each command the staging area is read again if the index file changed since the session read it.
+ * After a failed command the staging area is read again from disk as well.
+ *
+ * @author Zichuan Wang
+ */
+public class BatchSession {
+
+    static final int OK = 0;
+    static final int FAILED = 1;
+    static final int ERROR = 2;
+    static final int RETRY = 3;
+
+    /** Remembers whether the last byte written ends a line. */
+    private static class LineTrackingStream extends FilterOutputStream {
+        private boolean atLineStart = true;
+
+        LineTrackingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            atLineStart = b == '\n';
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (len > 0) {
+                atLineStart = b[off + len - 1] == '\n';
+            }
+        }
+    }
+
+    /** The repository the commands run on, null until a command needs it. */
+    private Repository repository;
+
+    private BatchSession() {
+    }
+
+    /** Runs the commands read from standard input until its end. */
+    static void run(String[] args) throws IOException {
+        new BatchSession().runAll(args);
+    }
+
+    private void runAll(String[] args) throws IOException {
+        boolean nulSeparated = args.length == 2 && args[1].equals("-z");
+        if (args.length != 1 && !nulSeparated) {
+            exit("Incorrect operands.");
+        }
+        char delimiter = nulSeparated ? '\0' : '\n';
+        // flushed once per command instead of once per line
+        LineTrackingStream tracker = new LineTrackingStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), STREAM_BUFFER_SIZE));
+        PrintStream out = new PrintStream(tracker, false);
+        System.setOut(out);
+        Reader in = new BufferedReader(new InputStreamReader(System.in));
+        for (String command = readCommand(in, delimiter); command != null; command = readCommand(in, delimiter)) {
+            if (command.isBlank()) {
+                continue;
+            }
+            int status = runCommand(command);
+            if (!tracker.atLineStart) {
+                out.print('\n');
+            }
+            out.print("--- exit " + status + "\n");
+            if (nulSeparated) {
+                out.print('\0');
+            }
+            out.flush();
+        }
+        out.flush();
+    }
+
+    /** Returns the next command without its delimiter, or null at the end of the input. */
+    private static String readCommand(Reader in, char delimiter) throws IOException {
+        StringBuilder command = new StringBuilder();
+        int ch = in.read();
+        if (ch < 0) {
+            return null;
+        }
+        while (ch >= 0 && ch != delimiter) {
+            command.append((char) ch);
+            ch = in.read();
+        }
+        if (delimiter == '\n' && command.length() > 0 && command.charAt(command.length() - 1) == '\r') {
+            command.setLength(command.length() - 1);
+        }
+        return command.toString();
+    }
+
+    /** Runs one command and returns its status. */
+    private int runCommand(String command) {
+        int status;
+        if (repository != null) {
+            repository.revalidateStageObject();
+        }
+        try {
+            Main.run(splitArguments(command), this::getRepository);
+            return OK;
+        } catch (ConcurrentUpdateException excp) {
+            System.out.print(excp.getMessage());
+            status = RETRY;
+        } catch (GitletException excp) {
+            System.out.print(excp.getMessage());
+            status = excp.isUserError() ? FAILED : ERROR;
+        } catch (IOException | RuntimeException excp) {
+            System.out.print("error: " + excp);
+            status = ERROR;
+        }
+        if (repository != null) {
+            repository.discardStageObject();
+        }
+        return status;
+    }
+
+    /** Returns the repository of the current directory, which is opened by the first command that needs it. */
+    private Repository getRepository() {
+        if (repository == null) {
+            repository = Repository.open(Main.CWD);
+        }
+        return repository;
+    }
+
+    /** Returns the arguments of a command line, see {@link BatchSession}. */
+    static String[] splitArguments(String command) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = new StringBuilder();
+        boolean inArg = false;
+        char quote = 0;
+        for (int i = 0; i < command.length(); i += 1) {
+            char ch = command.charAt(i);
+            if (quote == '\'') {
+                if (ch == '\'') {
+                    quote = 0;
+                } else {
+                    arg.append(ch);
+                }
+            } else if (ch == '\\' && i + 1 < command.length()) {
+                i += 1;
+                arg.append(command.charAt(i));
+                inArg = true;
+            } else if (quote == '"') {
+                if (ch == '"') {
+                    quote = 0;
+                } else {
+                    arg.append(ch);
+                }
+            } else if (ch == '"' || ch == '\'') {
+                quote = ch;
+                inArg = true;
+            } else if (Character.isWhitespace(ch)) {
+                if (inArg) {
+                    args.add(arg.toString());
+                    arg.setLength(0);
+                    inArg = false;
+                }
+            } else {
+                arg.append(ch);
+                inArg = true;
+            }
+        }
+        if (quote != 0) {
+            exit("Unterminated quote.");
+        }
+        if (inArg) {
+            args.add(arg.toString());
+        }
+        return args.toArray(new String[0]);
+    }
+}
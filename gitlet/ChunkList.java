@@ -0,0 +1,80 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Represents a large file stored as chunks, see {@link Chunker}.
+ * The chunk list is stored under the hash value of the whole file in place of its content,
+ * and each chunk is stored as a blob of its own, so chunks are shared by all files that contain them.
+ * A chunk list is encoded with {@link ObjectCodec.Writer} as {@link #MAGIC},
+ * the number of chunks, and the hash value and size of each chunk.
+ * Since its hash value is not the hash value of its own bytes,
+ * a chunk list can't be mistaken for a file that happens to start with {@link #MAGIC}.
+ *
+ * @author Zichuan Wang
+ */
+public class ChunkList {
+
+    static final byte[] MAGIC = "gitlet chunks\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final List<ObjectId> chunks = new ArrayList<>();
+    private final List<Integer> sizes = new ArrayList<>();
+
+    /** Appends a chunk. */
+    void add(ObjectId chunk, int size) {
+        chunks.add(chunk);
+        sizes.add(size);
+    }
+
+    /** Returns the hash values of the chunks in order. */
+    List<ObjectId> getChunks() {
+        return chunks;
+    }
+
+    /** Returns the size of the whole file. */
+    long getSize() {
+        long size = 0;
+        for (int s : sizes) {
+            size += s;
+        }
+        return size;
+    }
+
+    /** Returns {@code true} if the bytes start with {@link #MAGIC}. */
+    static boolean hasMagic(byte[] head, int length) {
+        return length >= MAGIC.length && Arrays.equals(head, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    byte[] encode() {
+        ObjectCodec.Writer out = new ObjectCodec.Writer();
+        out.writeBytes(MAGIC);
+        out.writeVarInt(chunks.size());
+        for (int i = 0; i < chunks.size(); i += 1) {
+            out.writeHash(chunks.get(i));
+            out.writeVarInt(sizes.get(i));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the chunk list stored as {@code stored} under {@code hashValue},
+     * or null if the object is an ordinary blob.
+     * */
+    static ChunkList decode(ObjectId hashValue, byte[] stored) {
+        if (!hasMagic(stored, stored.length) || ObjectId.hash(stored).equals(hashValue)) {
+            return null;
+        }
+        ObjectCodec.Reader in = new ObjectCodec.Reader(stored);
+        in.readBytes(new byte[MAGIC.length], 0, MAGIC.length);
+        ChunkList list = new ChunkList();
+        int count = in.readVarInt();
+        for (int i = 0; i < count; i += 1) {
+            ObjectId chunk = in.readHash();
+            list.add(chunk, in.readVarInt());
+        }
+        return list;
+    }
+}
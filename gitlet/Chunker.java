@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Splits a stream into chunks at positions chosen by its content, so that an edit only changes
+ * the chunks around it and the other chunks of two versions of a file are identical.
+ * A cut is made where the top bits of a gear hash of the last 64 bytes are all zero.
+ * As in FastCDC, the first {@link #MIN_SIZE} bytes of a chunk are skipped, a stricter mask is used
+ * before {@link #NORMAL_SIZE} bytes and a looser one after, and no chunk exceeds {@link #MAX_SIZE} bytes,
+ * which keeps chunk sizes close to the normal size.
+ *
+ * @author Zichuan Wang
+ */
+public class Chunker {
+
+    static final int MIN_SIZE = 16 << 10;
+    static final int NORMAL_SIZE = 64 << 10;
+    static final int MAX_SIZE = 256 << 10;
+
+    /** Mask before the normal size, 2 bits more than the normal size needs. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    /** Mask after the normal size, 2 bits less than the normal size needs. */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+
+    /** Random value of each byte, fixed so that all versions of gitlet cut at the same positions. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final InputStream in;
+    /** Bytes read but not returned yet, buffer[0, length). */
+    private final byte[] buffer = new byte[MAX_SIZE];
+    private int length = 0;
+    private boolean eof = false;
+
+    public Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Returns the next chunk, or null at the end of the stream. */
+    byte[] next() throws IOException {
+        if (!eof) {
+            length += in.readNBytes(buffer, length, buffer.length - length);
+            eof = length < buffer.length;
+        }
+        if (length == 0) {
+            return null;
+        }
+        int cut = cutPoint(buffer, length);
+        byte[] chunk = Arrays.copyOf(buffer, cut);
+        System.arraycopy(buffer, cut, buffer, 0, length - cut);
+        length -= cut;
+        return chunk;
+    }
+
+    /** Returns the size of the chunk at the beginning of {@code data[0, length)}. */
+    private static int cutPoint(byte[] data, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int normal = Math.min(NORMAL_SIZE, length);
+        int end = Math.min(MAX_SIZE, length);
+        long h = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            h = (h << 1) + GEAR[data[i] & 0xff];
+            if ((h & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i += 1) {
+            h = (h << 1) + GEAR[data[i] & 0xff];
+            if ((h & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+}
@@ -1,15 +1,14 @@
 package gitlet;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
+import java.io.PrintWriter;
 import java.io.Serializable;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
-import java.util.Formatter;
 import java.util.Locale;
-import java.util.Map;
-
-import static gitlet.Repository.getCurrentHeadCommitID;
-import static gitlet.Utils.sha1;
-import static gitlet.Utils.serialize;
 
 /**
  * Represents a gitlet commit object.
@@ -20,35 +19,73 @@ import static gitlet.Utils.serialize;
  */
 public class Commit implements Serializable, Dumpable {
 
+    /** Kept so that commits written by older versions can still be read by migrate. */
+    private static final long serialVersionUID = -2276411401626477519L;
+    /** Fields of commits written by older versions, whose hash values are strings. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("message", String.class),
+        new ObjectStreamField("date", Date.class),
+        new ObjectStreamField("parent", String.class),
+        new ObjectStreamField("secondParent", String.class),
+        new ObjectStreamField("tree", String.class),
+    };
+
     /** The message of this Commit. */
     private final String message;
     private final Date date;
-    private final String parent;
-    private final String secondParent;
-    private final String tree;
+    /** Hash value of the parent, null for the initial commit. */
+    private final ObjectId parent;
+    /** Hash value of the second parent, null unless this is a merge commit. */
+    private final ObjectId secondParent;
+    /** Hash value of the file tree, null for the initial commit. */
+    private final ObjectId tree;
+    /** Commit read by {@link #readObject(ObjectInputStream)}, only used by {@link #readResolve()}. */
+    private transient Commit legacyCommit;
+    /** Hash value of this commit, null until it is known, see {@link #getHashValue()}. */
+    private transient ObjectId hashValue;
+
+    /** Format of dates in log, as in {@code git log}. */
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss yyyy Z", Locale.US).withZone(ZoneId.systemDefault());
 
     public Commit() {
         message = "initial commit";
         date = new Date(0);
-        parent = "";
-        secondParent = "";
-        tree = "";
+        parent = null;
+        secondParent = null;
+        tree = null;
     }
 
-    public Commit(String msg, String treeHashValue) {
-        message = msg;
-        date = new Date();
-        parent = getCurrentHeadCommitID();
-        tree = treeHashValue;
-        secondParent = "";
+    /** Creates a commit made now, whose second parent is null unless it is a merge commit. */
+    public Commit(String msg, ObjectId parentHashValue, ObjectId secondParentHashValue, ObjectId treeHashValue) {
+        this(msg, new Date(), parentHashValue, secondParentHashValue, treeHashValue);
     }
 
-    public Commit(String msg, String treeHashValue, String secondParentHashValue) {
+    /** Creates a commit whose fields are all known, e.g., when decoding one. */
+    Commit(String msg, Date d, ObjectId parentHashValue, ObjectId secondParentHashValue, ObjectId treeHashValue) {
         message = msg;
-        date = new Date();
-        parent = getCurrentHeadCommitID();
-        tree = treeHashValue;
+        date = d;
+        parent = parentHashValue;
         secondParent = secondParentHashValue;
+        tree = treeHashValue;
+    }
+
+    /** Reads a commit written by older versions. */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        legacyCommit = new Commit((String) fields.get("message", null), (Date) fields.get("date", null),
+                legacyID(fields.get("parent", "")), legacyID(fields.get("secondParent", "")),
+                legacyID(fields.get("tree", "")));
+    }
+
+    /** Returns the commit read by {@link #readObject(ObjectInputStream)}. */
+    private Object readResolve() {
+        return legacyCommit;
+    }
+
+    /** Returns the ObjectId of a hash value written by older versions, where "" means none. */
+    private static ObjectId legacyID(Object hashValue) {
+        return ((String) hashValue).isEmpty() ? null : ObjectId.fromString((String) hashValue);
     }
 
     public String getMessage() {
@@ -59,74 +96,71 @@ public class Commit implements Serializable, Dumpable {
         return date;
     }
 
-    public String getParentHashValue() {
+    /** Returns the hash value of the parent, or null if there is none. */
+    public ObjectId getParentHashValue() {
         return parent;
     }
 
-    public String getSecondParentHashValue() {
+    /** Returns the hash value of the second parent, or null if there is none. */
+    public ObjectId getSecondParentHashValue() {
         return secondParent;
     }
 
     public boolean hasParent() {
-        return parent.isEmpty();
+        return parent != null;
     }
 
     public boolean hasSecondParent() {
-        return secondParent.isEmpty();
+        return secondParent != null;
     }
 
-    public Commit getParentCommit() {
-        return getCommitByID(parent);
-    }
-
-    public Commit getSecondParentCommit() {
-        return getCommitByID(secondParent);
-    }
-
-    private Commit getCommitByID(String hashValue) {
-        if (hashValue.isEmpty()) {
-            return null;
-        }
-        return Repository.readCommitObjectByID(hashValue);
-    }
-
-    public String getTreeHashValue() {
+    /** Returns the hash value of the file tree, or null if there is none. */
+    public ObjectId getTreeHashValue() {
         return tree;
     }
 
-    public FileTree getFileTree() {
-        if (tree.isEmpty()) {
-            return new FileTree();
+    /**
+     * Returns the hash value of this commit.
+     * Commits read by ID already know it, see {@link Repository#readCommitObjectByID(ObjectId)},
+     * so it is only computed for commits that were not read that way.
+     * */
+    public ObjectId getHashValue() {
+        if (hashValue == null) {
+            hashValue = ObjectId.hash(ObjectCodec.encode(this));
         }
-        return Repository.readObjectFromObjectsByID(tree, FileTree.class);
+        return hashValue;
     }
 
-    public Map<File, String> getFileTreeMap() {
-        return getFileTree().getStage();
+    /** Records the hash value this commit was read by. */
+    void setHashValue(ObjectId id) {
+        hashValue = id;
     }
 
     /** Prints commit message and other data. */
     @Override
     public void dump() {
-        StringBuilder strDate = new StringBuilder();
-        Formatter formatter = new Formatter(strDate, Locale.US);
-        formatter.format("Date: %1$ta %1$tb %1$td %1$tT %1$tY %1$tz", date);
-        System.out.println("===");
-        System.out.printf("commit %s\n", sha1(serialize(this)));
-        if (!secondParent.isEmpty()) {
-            System.out.printf("Merge: %s %s\n", parent.substring(0, 7), secondParent.substring(0, 7));
+        PrintWriter out = Utils.bufferedOutput();
+        writeLog(out);
+        out.flush();
+    }
+
+    /** Writes the log entry of this commit into {@code out}. */
+    public void writeLog(PrintWriter out) {
+        out.print("===\ncommit ");
+        out.print(getHashValue().name());
+        out.print('\n');
+        if (secondParent != null) {
+            out.print("Merge: ");
+            out.print(parent.abbreviate(7));
+            out.print(' ');
+            out.print(secondParent.abbreviate(7));
+            out.print('\n');
         }
-        System.out.println(strDate);
-        System.out.println(message);
-        System.out.println("");
-    }
-
-    public CommitTraversal traverseBack() {
-        return new CommitTraversal(this);
-    }
-
-    public void printID() {
-        System.out.println(sha1(serialize(this)));
+        out.print("Date: ");
+        DATE_FORMAT.formatTo(date.toInstant(), out);
+        out.print('\n');
+        out.print(message);
+        out.print("\n\n");
     }
 
 }
@@ -3,84 +3,64 @@ package gitlet;
 import java.util.*;
 
 /**
- * Iterates all commits.
- * Instead of save all commits in a set, save commit IDs in a set to save memory.
- * Each time, read only one commit and find the next commit that has not been traversed yet.
+ * Iterates all commits reachable from a set of heads, following both parents of merge commits.
+ * A depth-first search with a stack of commit IDs, so a branch is walked back along first parents
+ * before the second parents met on the way.
+ * Each commit ID is added to a visited set when its commit is read, so every commit is read exactly once
+ * and the traversal is linear in the number of commits.
  * */
 public class CommitGlobalTraversal implements Iterable<Commit> {
 
-    private final Set<String> headIDs;
+    private final Repository repository;
+    private final Set<ObjectId> headIDs;
 
-    public CommitGlobalTraversal(Set<String> h) {
+    public CommitGlobalTraversal(Repository r, Set<ObjectId> h) {
+        repository = r;
         headIDs = h;
     }
 
     @Override
     public Iterator<Commit> iterator() {
-        return new CommitGlobalTraversalIterator(headIDs);
+        return new CommitGlobalTraversalIterator(repository, headIDs);
     }
 
     private static class CommitGlobalTraversalIterator implements Iterator<Commit> {
 
-        private final Deque<String> heads;
+        private final Repository repository;
+        /** IDs of commits to visit, the next one on top. */
+        private final Deque<ObjectId> pending = new ArrayDeque<>();
+        /** IDs of commits that were read. */
+        private final Set<ObjectId> visited = new HashSet<>();
+        /** The commit returned by the next call of {@link #next()}, null if there is none. */
         private Commit c;
-        private final Set<String> commitIDs;
 
-        public CommitGlobalTraversalIterator(Set<String> h) {
-            commitIDs = new TreeSet<>();
-            heads = new LinkedList<>();
-            heads.addAll(h);
-            c = null;
-
-            // initialize c
-            if (!heads.isEmpty()) {
-                startFromNewBranch();
+        public CommitGlobalTraversalIterator(Repository r, Set<ObjectId> h) {
+            repository = r;
+            List<ObjectId> heads = new ArrayList<>(h);
+            Collections.reverse(heads);
+            for (ObjectId id : heads) {
+                pending.push(id);
             }
+            c = advance();
         }
 
-        /** Assigns {@code c} with the Commit object of new branch head. */
-        private boolean startFromNewBranch() {
-            assert !heads.isEmpty();
-            String cID = heads.pop();
-            c = Repository.readCommitObjectByID(cID);
-
-            return commitIDs.add(cID);
-        }
-
-        /** Assigns {@code c} with the Commit object that has not been traversed. */
-        private void updateCommit() {
-            assert c != null;
-            boolean findNext = false;
-            while (!findNext) {
-                // iterate the current branch
-                for (Commit p : c.traverseBack()) {
-                    if (commitIDs.add(p.getParentHashValue())) {
-                        // parent of c is not traversed yet
-                        c = p.getParentCommit();  // may be null
-                        if (c != null) {
-                            findNext = true;
-                            break;
-                        }
-                    }
+        /** Returns the next commit that was not visited yet, or null if there is none. */
+        private Commit advance() {
+            while (!pending.isEmpty()) {
+                ObjectId id = pending.pop();
+                if (!visited.add(id)) {
+                    continue;
                 }
-
-                if (findNext) {
-                    break;
+                Commit commit = repository.readCommitObjectByID(id);
+                if (commit.hasSecondParent() && !visited.contains(commit.getSecondParentHashValue())) {
+                    pending.push(commit.getSecondParentHashValue());
                 }
-
-                // switch a branch
-                if (heads.isEmpty()) {
-                    // no more branches
-                    break;
-                } else if (startFromNewBranch()) {
-                    // the new branch head is not traversed yet, c is new head
-                    findNext = true;
-                }  // else, the new branch head is traversed
-            }
-
-            if (!findNext) {
-                c = null;
+                if (commit.hasParent() && !visited.contains(commit.getParentHashValue())) {
+                    pending.push(commit.getParentHashValue());
+                }
+                return commit;
             }
+            return null;
         }
 
         @Override
@@ -90,9 +70,11 @@ public class CommitGlobalTraversal implements Iterable<Commit> {
 
         @Override
         public Commit next() {
+            if (c == null) {
+                throw new NoSuchElementException();
+            }
             Commit p = c;
-            updateCommit();
-
+            c = advance();
             return p;
         }
     }
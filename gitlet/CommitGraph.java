@@ -0,0 +1,402 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the commit graph of a repository, i.e., the parents, generation number,
+ * and timestamp of each commit, so that ancestry questions are answered
+ * without reading commit objects.
+ * The generation number of a commit without parents is 1,
+ * otherwise it is one more than the largest generation number of its parents,
+ * so a commit is never an ancestor of a commit whose generation number is not larger.
+ * <p>
+ * The graph is persisted in .gitlet/commit-graph, a memory-mapped file laid out as
+ * <ul>
+ * <li>header: magic number, version, number of commits N</li>
+ * <li>fanout table: 256 ints, entry i is the number of commits
+ * whose first byte of ID is at most i</li>
+ * <li>N raw 20-byte commit IDs, sorted</li>
+ * <li>N records: position of the parent, position of the second parent
+ * (-1 if there is none), generation number, and timestamp in milliseconds</li>
+ * </ul>
+ * Commits that are not in the file yet are read once, kept in memory,
+ * and written by {@link #save()}.
+ * A commit is referred to by its position: positions less than N are in the file,
+ * the others are in memory.
+ * Queries add commits in memory, so the methods are synchronized for concurrent readers.
+ *
+ * @author Zichuan Wang
+ */
+public class CommitGraph {
+
+    /** Magic number at the beginning of the file. */
+    private static final int MAGIC = 0x47434752;  // "GCGR"
+    private static final int VERSION = 1;
+    private static final int RAW_ID_LENGTH = ObjectId.RAW_LENGTH;
+    private static final int FANOUT_SIZE = 256;
+    private static final int HEADER_SIZE = 12;
+    private static final int IDS_START = HEADER_SIZE + 4 * FANOUT_SIZE;
+    private static final int RECORD_SIZE = 20;
+    private static final int NONE = -1;
+
+    /** Flags of {@link #mergeBase(ObjectId, ObjectId)}. */
+    private static final int REACHABLE_FROM_FIRST = 1;
+    private static final int REACHABLE_FROM_SECOND = 2;
+
+    /** A commit that is not in the file. */
+    private static class Node {
+        private final ObjectId id;
+        private final int parent;
+        private final int secondParent;
+        private final int generation;
+        private final long time;
+
+        Node(ObjectId id, int parent, int secondParent, int generation, long time) {
+            this.id = id;
+            this.parent = parent;
+            this.secondParent = secondParent;
+            this.generation = generation;
+            this.time = time;
+        }
+    }
+
+    /** The repository whose commits are read when they are not in the graph yet. */
+    private final Repository repository;
+    /** The commit-graph file, which may not exist. */
+    private final File graphFile;
+    /** The mapped file, null if the file doesn't exist. */
+    private MappedByteBuffer buffer;
+    /** Number of commits in the file. */
+    private int count;
+    /** Start of the records. */
+    private int recordsStart;
+    /** Commits that are not in the file, the i-th of which is at position count + i. */
+    private final List<Node> nodes = new ArrayList<>();
+    /** Positions of commits that are not in the file. */
+    private final Map<ObjectId, Integer> nodePositions = new HashMap<>();
+    private boolean loaded = false;
+    /** Number of commits in memory when the file was last written. */
+    private int saved = 0;
+
+    public CommitGraph(Repository repository, File graphFile) {
+        this.repository = repository;
+        this.graphFile = graphFile;
+    }
+
+    /** Maps the file into memory on first use. */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!graphFile.isFile()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(graphFile.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw error("Corrupted commit graph %s.", graphFile);
+        }
+        count = buffer.getInt(8);
+        recordsStart = IDS_START + count * RAW_ID_LENGTH;
+    }
+
+    /** Returns the number of commits in the file whose first byte of ID is less than {@code firstByte}. */
+    private int fanoutBefore(int firstByte) {
+        return firstByte == 0 ? 0 : buffer.getInt(HEADER_SIZE + 4 * (firstByte - 1));
+    }
+
+    /** Returns the position of the commit in the file, or -1 if it is not there. */
+    private int indexOf(ObjectId id) {
+        if (buffer == null) {
+            return NONE;
+        }
+        int firstByte = id.getFirstByte();
+        int lo = fanoutBefore(firstByte);
+        int hi = fanoutBefore(firstByte + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = id.compareTo(buffer, IDS_START + mid * RAW_ID_LENGTH);
+            if (c > 0) {
+                lo = mid + 1;
+            } else if (c < 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the position of the commit, or -1 if it is not in the graph yet. */
+    private int find(ObjectId id) {
+        int pos = indexOf(id);
+        if (pos != NONE) {
+            return pos;
+        }
+        return nodePositions.getOrDefault(id, NONE);
+    }
+
+    /** Returns the position of the commit, adding it and its missing ancestors to the graph. */
+    private int lookup(ObjectId id) {
+        load();
+        int pos = find(id);
+        if (pos != NONE) {
+            return pos;
+        }
+        // add parents before children
+        Deque<ObjectId> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            ObjectId top = stack.peek();
+            if (find(top) != NONE) {
+                stack.pop();
+                continue;
+            }
+            Commit c = repository.readCommitObjectByID(top);
+            ObjectId parentID = c.getParentHashValue();
+            ObjectId secondParentID = c.getSecondParentHashValue();
+            int parent = parentID == null ? NONE : find(parentID);
+            int secondParent = secondParentID == null ? NONE : find(secondParentID);
+            if (parentID != null && parent == NONE) {
+                stack.push(parentID);
+                continue;
+            }
+            if (secondParentID != null && secondParent == NONE) {
+                stack.push(secondParentID);
+                continue;
+            }
+            stack.pop();
+            int generation = 1;
+            if (parent != NONE) {
+                generation = Math.max(generation, getGeneration(parent) + 1);
+            }
+            if (secondParent != NONE) {
+                generation = Math.max(generation, getGeneration(secondParent) + 1);
+            }
+            nodePositions.put(top, count + nodes.size());
+            nodes.add(new Node(top, parent, secondParent, generation, c.getDate().getTime()));
+        }
+        return find(id);
+    }
+
+    private ObjectId getID(int pos) {
+        if (pos < count) {
+            return ObjectId.fromBuffer(buffer, IDS_START + pos * RAW_ID_LENGTH);
+        }
+        return nodes.get(pos - count).id;
+    }
+
+    private int getParent(int pos) {
+        return pos < count ? buffer.getInt(recordsStart + pos * RECORD_SIZE) : nodes.get(pos - count).parent;
+    }
+
+    private int getSecondParent(int pos) {
+        return pos < count ? buffer.getInt(recordsStart + pos * RECORD_SIZE + 4) : nodes.get(pos - count).secondParent;
+    }
+
+    private int getGeneration(int pos) {
+        return pos < count ? buffer.getInt(recordsStart + pos * RECORD_SIZE + 8) : nodes.get(pos - count).generation;
+    }
+
+    private long getTime(int pos) {
+        return pos < count ? buffer.getLong(recordsStart + pos * RECORD_SIZE + 12) : nodes.get(pos - count).time;
+    }
+
+    /**
+     * Returns the latest common ancestor of two commits, or null if there is none.
+     * Commits are visited from the largest generation number down,
+     * following both parents, until a commit reachable from both is found.
+     * Since every descendant of a commit has a larger generation number,
+     * the first such commit is not an ancestor of any other common ancestor.
+     * Ties are broken by the later timestamp.
+     * */
+    synchronized ObjectId mergeBase(ObjectId first, ObjectId second) {
+        int a = lookup(first);
+        int b = lookup(second);
+        Map<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(this::compareNewestFirst);
+        flags.merge(a, REACHABLE_FROM_FIRST, (x, y) -> x | y);
+        flags.merge(b, REACHABLE_FROM_SECOND, (x, y) -> x | y);
+        queue.add(a);
+        if (b != a) {
+            queue.add(b);
+        }
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            int f = flags.get(pos);
+            if (f == (REACHABLE_FROM_FIRST | REACHABLE_FROM_SECOND)) {
+                return getID(pos);
+            }
+            for (int p : new int[]{getParent(pos), getSecondParent(pos)}) {
+                if (p == NONE) {
+                    continue;
+                }
+                Integer old = flags.get(p);
+                if (old == null) {
+                    flags.put(p, f);
+                    queue.add(p);
+                } else if ((old | f) != old) {
+                    // already queued, the queue order doesn't depend on flags
+                    flags.put(p, old | f);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if {@code ancestor} is {@code descendant} or one of its ancestors.
+     * Commits whose generation number is not larger than that of {@code ancestor} are not searched.
+     * */
+    synchronized boolean isAncestor(ObjectId ancestor, ObjectId descendant) {
+        int target = lookup(ancestor);
+        int start = lookup(descendant);
+        int minGeneration = getGeneration(target);
+        Set<Integer> visited = new HashSet<>();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (pos == target) {
+                return true;
+            }
+            if (getGeneration(pos) <= minGeneration || !visited.add(pos)) {
+                continue;
+            }
+            for (int p : new int[]{getParent(pos), getSecondParent(pos)}) {
+                if (p != NONE) {
+                    stack.push(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the commits among {@code candidates} that are reachable from {@code heads}, newest first.
+     * Commits whose generation number is smaller than that of every candidate are not searched,
+     * and the search stops once every candidate was found.
+     * */
+    synchronized List<ObjectId> filterReachable(Collection<ObjectId> heads, Collection<ObjectId> candidates) {
+        load();
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (ObjectId head : heads) {
+            stack.push(lookup(head));
+        }
+        Set<Integer> targets = new HashSet<>();
+        int minGeneration = Integer.MAX_VALUE;
+        for (ObjectId id : candidates) {
+            int pos = find(id);
+            if (pos != NONE) {
+                targets.add(pos);
+                minGeneration = Math.min(minGeneration, getGeneration(pos));
+            }
+        }
+        List<Integer> found = new ArrayList<>();
+        BitSet visited = new BitSet();
+        while (!stack.isEmpty() && !targets.isEmpty()) {
+            int pos = stack.pop();
+            if (visited.get(pos) || getGeneration(pos) < minGeneration) {
+                continue;
+            }
+            visited.set(pos);
+            if (targets.remove(pos)) {
+                found.add(pos);
+            }
+            for (int p : new int[]{getParent(pos), getSecondParent(pos)}) {
+                if (p != NONE) {
+                    stack.push(p);
+                }
+            }
+        }
+        found.sort(this::compareNewestFirst);
+        List<ObjectId> ids = new ArrayList<>();
+        for (int pos : found) {
+            ids.add(getID(pos));
+        }
+        return ids;
+    }
+
+    /** Orders positions by generation number, then by timestamp, largest first. */
+    private int compareNewestFirst(int x, int y) {
+        int c = Integer.compare(getGeneration(y), getGeneration(x));
+        if (c != 0) {
+            return c;
+        }
+        return Long.compare(getTime(y), getTime(x));
+    }
+
+    /** Writes the file if commits were added since it was loaded or last written. */
+    synchronized void save() {
+        if (nodes.size() == saved) {
+            return;
+        }
+        saved = nodes.size();
+        int total = count + nodes.size();
+        Integer[] order = new Integer[total];
+        ObjectId[] ids = new ObjectId[total];
+        for (int i = 0; i < total; i += 1) {
+            order[i] = i;
+            ids[i] = getID(i);
+        }
+        Arrays.sort(order, Comparator.comparing(i -> ids[i]));
+        int[] newPosition = new int[total];
+        for (int i = 0; i < total; i += 1) {
+            newPosition[order[i]] = i;
+        }
+        int[] fanout = new int[FANOUT_SIZE];
+        for (ObjectId id : ids) {
+            fanout[id.getFirstByte()] += 1;
+        }
+        for (int i = 1; i < FANOUT_SIZE; i += 1) {
+            fanout[i] += fanout[i - 1];
+        }
+
+        // a file of its own, so concurrent writers never write into the same file
+        File tmpFile = null;
+        try {
+            tmpFile = File.createTempFile(graphFile.getName(), null, graphFile.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(total);
+                for (int n : fanout) {
+                    out.writeInt(n);
+                }
+                for (int pos : order) {
+                    out.write(ids[pos].toRaw());
+                }
+                for (int pos : order) {
+                    int parent = getParent(pos);
+                    int secondParent = getSecondParent(pos);
+                    out.writeInt(parent == NONE ? NONE : newPosition[parent]);
+                    out.writeInt(secondParent == NONE ? NONE : newPosition[secondParent]);
+                    out.writeInt(getGeneration(pos));
+                    out.writeLong(getTime(pos));
+                }
+            }
+            Files.move(tmpFile.toPath(), graphFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -1,37 +1,50 @@
 package gitlet;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 public class CommitTraversal implements Iterable<Commit> {
 
+    private final Repository repository;
     private final Commit leafCommit;
 
-    public CommitTraversal(Commit c) {
+    public CommitTraversal(Repository r, Commit c) {
+        repository = r;
         leafCommit = c;
     }
 
     @Override
     public Iterator<Commit> iterator() {
-        return new CommitTraversalIterator(leafCommit);
+        return new CommitTraversalIterator(repository, leafCommit);
     }
 
+    /** Reads each parent only when it is returned, so stopping early reads no more commits than needed. */
     private static class CommitTraversalIterator implements Iterator<Commit> {
 
-        private Commit commit;
+        private final Repository repository;
+        /** The first commit, null once it was returned. */
+        private Commit first;
+        /** Hash value of the next commit after the first one, null if there is none. */
+        private ObjectId nextID;
 
-        public CommitTraversalIterator(Commit c) {
-            commit = c;
+        public CommitTraversalIterator(Repository r, Commit c) {
+            repository = r;
+            first = c;
         }
 
         @Override
         public boolean hasNext() {
-            return commit != null;
+            return first != null || nextID != null;
         }
 
         @Override
         public Commit next() {
-            Commit currentCommit = commit;
-            commit = commit.getParentCommit();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Commit currentCommit = first != null ? first : repository.readCommitObjectByID(nextID);
+            first = null;
+            nextID = currentCommit.getParentHashValue();
 
             return currentCommit;
         }
@@ -0,0 +1,17 @@
+package gitlet;
+
+/**
+ * A GitletException reporting that another process was updating the same ref,
+ * so the command did not change it and may succeed if it is run again, see {@link RefLock}.
+ *
+ * @author Zichuan Wang
+ */
+class ConcurrentUpdateException extends GitletException {
+
+    private static final long serialVersionUID = -7629719789279235135L;
+
+    /** A ConcurrentUpdateException MSG as its message. */
+    ConcurrentUpdateException(String msg, Object... args) {
+        super(String.format(msg, args));
+    }
+}
@@ -0,0 +1,80 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the settings of a repository, stored in .gitlet/config as a properties file,
+ * e.g., a line {@code cacheBytes=1048576}.
+ * The Java system property gitlet.KEY overrides the setting KEY,
+ * e.g., {@code java -Dgitlet.cacheBytes=0 gitlet.Main log}.
+ *
+ * @author Zichuan Wang
+ */
+public class Config {
+
+    /** Prefix of system properties that override settings. */
+    private static final String SYSTEM_PREFIX = "gitlet.";
+
+    /** The config file, which may not exist. */
+    private final File configFile;
+    /** Settings in the config file, loaded on first use. */
+    private Properties properties;
+
+    public Config(File configFile) {
+        this.configFile = configFile;
+    }
+
+    /** Returns the settings in the config file. */
+    private Properties getProperties() {
+        if (properties == null) {
+            properties = new Properties();
+            if (configFile.isFile()) {
+                try (Reader in = Files.newBufferedReader(configFile.toPath(), StandardCharsets.UTF_8)) {
+                    properties.load(in);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return properties;
+    }
+
+    /** Returns the value of the setting, or {@code defaultValue} if it is not set. */
+    String get(String key, String defaultValue) {
+        String value = System.getProperty(SYSTEM_PREFIX + key);
+        if (value != null) {
+            return value;
+        }
+        return getProperties().getProperty(key, defaultValue);
+    }
+
+    /** Returns the value of the setting as a long, or {@code defaultValue} if it is not set. */
+    long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException excp) {
+            exit("Invalid value of %s in config: %s", key, value);
+            return defaultValue;
+        }
+    }
+
+    /** Returns the value of the setting as a boolean, or {@code defaultValue} if it is not set. */
+    boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+}
@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.util.Arrays;
+
+/**
+ * Encodes a file as a binary delta against another version of it, and applies such deltas.
+ * A delta is encoded with {@link ObjectCodec.Writer} as
+ * <ul>
+ * <li>the size of the base and the size of the target, as varints</li>
+ * <li>instructions, each either {@link #COPY} followed by an offset and a length in the base,
+ * or {@link #INSERT} followed by a length and that many literal bytes</li>
+ * </ul>
+ * The encoder indexes the base by the rolling hash of every {@link #BLOCK}-byte block
+ * at block boundaries, then slides a window of the same size over the target one byte at a time,
+ * updating the hash in constant time. A window whose hash and bytes match a block of the base
+ * becomes a copy, extended as far as the bytes keep matching in both directions.
+ * Encoding is linear in the sizes of both files, so the delta of a small edit
+ * to a large file is about the size of the edit.
+ *
+ * @author Zichuan Wang
+ */
+public class Delta {
+
+    /** Size of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 0x01000193;
+    /** PRIME to the power of BLOCK, to remove the byte leaving the window. */
+    private static final int PRIME_POW_BLOCK = pow(PRIME, BLOCK);
+    /** At most this many blocks with the same hash are compared. */
+    private static final int MAX_CANDIDATES = 8;
+
+    private static final byte COPY = 1;
+    private static final byte INSERT = 2;
+
+    private Delta() {
+    }
+
+    private static int pow(int base, int exp) {
+        int result = 1;
+        for (int i = 0; i < exp; i += 1) {
+            result *= base;
+        }
+        return result;
+    }
+
+    /** Returns the hash of {@code data[from, from + BLOCK)}. */
+    private static int hash(byte[] data, int from) {
+        int h = 0;
+        for (int i = from; i < from + BLOCK; i += 1) {
+            h = h * PRIME + (data[i] & 0xff);
+        }
+        return h;
+    }
+
+    /** Returns the hash of the window moved one byte forward, dropping {@code out} and adding {@code in}. */
+    private static int roll(int h, byte out, byte in) {
+        return h * PRIME - (out & 0xff) * PRIME_POW_BLOCK + (in & 0xff);
+    }
+
+    /** Returns the slot of a hash in a table with {@code mask + 1} slots. */
+    private static int slot(int h, int mask) {
+        return (h ^ (h >>> 15)) & mask;
+    }
+
+    /** Returns the delta that turns {@code base} into {@code target}. */
+    static byte[] encode(byte[] base, byte[] target) {
+        ObjectCodec.Writer out = new ObjectCodec.Writer();
+        out.writeVarInt(base.length);
+        out.writeVarInt(target.length);
+
+        // blocks of the base by hash, chained through next, latest block first
+        int blocks = base.length / BLOCK;
+        int mask = Integer.highestOneBit(Math.max(1, blocks) * 2 - 1) * 2 - 1;
+        int[] heads = new int[mask + 1];
+        Arrays.fill(heads, -1);
+        int[] next = new int[blocks];
+        for (int b = 0; b < blocks; b += 1) {
+            int s = slot(hash(base, b * BLOCK), mask);
+            next[b] = heads[s];
+            heads[s] = b;
+        }
+
+        int literalStart = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (blocks > 0 && i + BLOCK <= target.length) {
+            int bestOffset = -1;
+            int bestLength = 0;
+            int candidates = 0;
+            for (int b = heads[slot(h, mask)]; b >= 0 && candidates < MAX_CANDIDATES; b = next[b]) {
+                candidates += 1;
+                int offset = b * BLOCK;
+                int length = 0;
+                while (offset + length < base.length && i + length < target.length
+                        && base[offset + length] == target[i + length]) {
+                    length += 1;
+                }
+                if (length >= BLOCK && length > bestLength) {
+                    bestOffset = offset;
+                    bestLength = length;
+                }
+            }
+            if (bestOffset < 0) {
+                if (i + BLOCK < target.length) {
+                    h = roll(h, target[i], target[i + BLOCK]);
+                }
+                i += 1;
+                continue;
+            }
+            // take back literal bytes that match the base just before the copy
+            while (i > literalStart && bestOffset > 0 && base[bestOffset - 1] == target[i - 1]) {
+                i -= 1;
+                bestOffset -= 1;
+                bestLength += 1;
+            }
+            writeInsert(out, target, literalStart, i);
+            out.writeByte(COPY);
+            out.writeVarInt(bestOffset);
+            out.writeVarInt(bestLength);
+            i += bestLength;
+            literalStart = i;
+            if (i + BLOCK <= target.length) {
+                h = hash(target, i);
+            }
+        }
+        writeInsert(out, target, literalStart, target.length);
+        return out.toByteArray();
+    }
+
+    private static void writeInsert(ObjectCodec.Writer out, byte[] target, int from, int to) {
+        if (from < to) {
+            out.writeByte(INSERT);
+            out.writeVarInt(to - from);
+            out.writeBytes(target, from, to - from);
+        }
+    }
+
+    /** Returns the size of the file the delta produces, without applying it. */
+    static int targetSize(byte[] delta) {
+        ObjectCodec.Reader in = new ObjectCodec.Reader(delta);
+        in.readVarInt();
+        return in.readVarInt();
+    }
+
+    /** Returns the file produced by applying the delta to {@code base}. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ObjectCodec.Reader in = new ObjectCodec.Reader(delta);
+        if (in.readVarInt() != base.length) {
+            throw new IllegalArgumentException("delta doesn't match its base");
+        }
+        byte[] target = new byte[in.readVarInt()];
+        int pos = 0;
+        while (in.hasRemaining()) {
+            byte op = in.readByte();
+            int offset = op == COPY ? in.readVarInt() : 0;
+            int length = in.readVarInt();
+            if (length < 0 || length > target.length - pos) {
+                throw new IllegalArgumentException("corrupted delta");
+            }
+            if (op == COPY) {
+                if (offset < 0 || offset > base.length - length) {
+                    throw new IllegalArgumentException("corrupted delta");
+                }
+                System.arraycopy(base, offset, target, pos, length);
+            } else if (op == INSERT) {
+                in.readBytes(target, pos, length);
+            } else {
+                throw new IllegalArgumentException("corrupted delta");
+            }
+            pos += length;
+        }
+        if (pos != target.length) {
+            throw new IllegalArgumentException("corrupted delta");
+        }
+        return target;
+    }
+}
@@ -0,0 +1,79 @@
+package gitlet;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Represents a gitlet tree object of a single directory.
+ * It maps the name of each file directly in the directory to the hash value of its blob,
+ * and the name of each subdirectory to the hash value of its own DirectoryTree.
+ * A commit points to the DirectoryTree of the working directory.
+ * Unchanged subdirectories keep their hash values, so a commit only writes
+ * the trees on the paths from the root to the changed files.
+ *
+ *  @author Zichuan
+ */
+public class DirectoryTree implements Dumpable {
+
+    private static final long serialVersionUID = 3120855206367581411L;
+
+    /** Map from file name to the hash value of its blob. */
+    private final SortedMap<String, ObjectId> files;
+    /** Map from subdirectory name to the hash value of its DirectoryTree. */
+    private final SortedMap<String, ObjectId> directories;
+
+    public DirectoryTree() {
+        files = new TreeMap<>();
+        directories = new TreeMap<>();
+    }
+
+    /** Creates a copy of {@code other} that can be modified. */
+    public DirectoryTree(DirectoryTree other) {
+        files = new TreeMap<>(other.files);
+        directories = new TreeMap<>(other.directories);
+    }
+
+    /** Returns the map from file name to the hash value of its blob. */
+    public SortedMap<String, ObjectId> getFiles() {
+        return files;
+    }
+
+    /** Returns the map from subdirectory name to the hash value of its tree. */
+    public SortedMap<String, ObjectId> getDirectories() {
+        return directories;
+    }
+
+    /** Adds or replaces a file, or removes it if {@code hashValue} is null. */
+    public void putFile(String name, ObjectId hashValue) {
+        if (hashValue == null) {
+            files.remove(name);
+        } else {
+            files.put(name, hashValue);
+        }
+    }
+
+    /** Adds or replaces a subdirectory, or removes it if {@code hashValue} is null. */
+    public void putDirectory(String name, ObjectId hashValue) {
+        if (hashValue == null) {
+            directories.remove(name);
+        } else {
+            directories.put(name, hashValue);
+        }
+    }
+
+    /** Returns true if the directory contains neither files nor subdirectories. */
+    public boolean isEmpty() {
+        return files.isEmpty() && directories.isEmpty();
+    }
+
+    @Override
+    public void dump() {
+        for (Map.Entry<String, ObjectId> e : directories.entrySet()) {
+            System.out.printf("tree %s %s\n", e.getValue(), e.getKey());
+        }
+        for (Map.Entry<String, ObjectId> e : files.entrySet()) {
+            System.out.printf("blob %s %s\n", e.getValue(), e.getKey());
+        }
+    }
+}
@@ -5,9 +5,9 @@ import java.io.IOException;
 
 /** A debugging class whose main program may be invoked as follows:
  *      java gitlet.DumpObj FILE...
- *  where each FILE is a file produced by Utils.writeObject (or any file
- *  containing a serialized object).  This will simply read FILE,
- *  deserialize it, and call the dump method on the resulting Object.
+ *  where each FILE is a file produced by ObjectCodec (a commit, a file
+ *  tree, or the index).  This will simply read FILE,
+ *  decode it, and call the dump method on the resulting Object.
  *  The object must implement the gitlet.Dumpable interface for this
  *  to work.  For example, you might define your class like this:
  *
@@ -34,8 +34,8 @@ public class DumpObj {
      *  in FILES. */
     public static void main(String... files) throws IOException {
         for (String fileName : files) {
-            Dumpable obj = Utils.readObject(new File(fileName),
-                                            Dumpable.class);
+            byte[] content = ObjectCompression.inflate(Utils.readContents(new File(fileName)));
+            Dumpable obj = ObjectCodec.decode(content, Dumpable.class);
             obj.dump();
             System.out.println("---");
         }
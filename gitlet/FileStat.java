@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents the stat data of a file in the working directory, i.e., size, mtime, ctime, and inode,
+ * together with the hash value of its content when the stat data was taken.
+ * If a file has the same stat data as recorded in the index, its content is trusted
+ * to be unchanged and is not hashed again.
+ * <p>
+ * A file modified within the timestamp granularity of the file system after its hash value
+ * was recorded could keep the same stat data. Such a "racy" entry is never recorded,
+ * see {@link #isRacy(long)}, so it is hashed again until it is old enough.
+ *
+ *  @author Zichuan Wang
+ */
+public class FileStat {
+
+    /** Files modified less than this many milliseconds before they are hashed are racy. */
+    private static final long RACY_WINDOW_MILLIS = 2000;
+
+    private final long size;
+    /** Modification time in nanoseconds. */
+    private final long mtime;
+    /** Status change time in nanoseconds, 0 if the file system doesn't have one. */
+    private final long ctime;
+    /** Inode number, 0 if the file system doesn't have one. */
+    private final long inode;
+    /** Hash value of the content, null if it is not known. */
+    private final ObjectId hashValue;
+
+    FileStat(long size, long mtime, long ctime, long inode, ObjectId hashValue) {
+        this.size = size;
+        this.mtime = mtime;
+        this.ctime = ctime;
+        this.inode = inode;
+        this.hashValue = hashValue;
+    }
+
+    /** Returns the stat data of the file, or null if it doesn't exist. */
+    static FileStat of(File file) {
+        try {
+            Map<String, Object> attrs = Files.readAttributes(file.toPath(), "unix:size,lastModifiedTime,ctime,ino");
+            return new FileStat((Long) attrs.get("size"), toNanos(attrs.get("lastModifiedTime")),
+                    toNanos(attrs.get("ctime")), ((Number) attrs.get("ino")).longValue(), null);
+        } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+            // not a unix file system
+            return ofBasic(file);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the stat data of the file without ctime and inode, or null if it doesn't exist. */
+    private static FileStat ofBasic(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return new FileStat(attrs.size(), toNanos(attrs.lastModifiedTime()), 0, 0, null);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    private static long toNanos(Object time) {
+        return ((FileTime) time).to(TimeUnit.NANOSECONDS);
+    }
+
+    /** Returns a copy of this stat data with the hash value of the content. */
+    FileStat withHashValue(ObjectId hash) {
+        return new FileStat(size, mtime, ctime, inode, hash);
+    }
+
+    /** Returns {@code true} if the file was modified too recently before {@code nowMillis} to be trusted. */
+    boolean isRacy(long nowMillis) {
+        return TimeUnit.NANOSECONDS.toMillis(mtime) + RACY_WINDOW_MILLIS > nowMillis;
+    }
+
+    /** Returns {@code true} if the stat data, ignoring the hash values, is the same. */
+    boolean sameStat(FileStat other) {
+        return other != null && size == other.size && mtime == other.mtime
+                && ctime == other.ctime && inode == other.inode;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getMtime() {
+        return mtime;
+    }
+
+    long getCtime() {
+        return ctime;
+    }
+
+    long getInode() {
+        return inode;
+    }
+
+    ObjectId getHashValue() {
+        return hashValue;
+    }
+}
@@ -11,6 +11,9 @@ import java.io.File;
  */
 public class FileTree extends AddStage {
 
+    /** Kept so that trees written by older versions can still be read by migrate. */
+    private static final long serialVersionUID = -1711807597306801019L;
+
     public FileTree() {
         super();
     }
@@ -6,15 +6,31 @@ package gitlet;
  */
 class GitletException extends RuntimeException {
 
+    private static final long serialVersionUID = 5846230117203541917L;
+
+    /** Whether the message reports a mistake of the user, e.g., wrong operands, rather than a failure. */
+    private final boolean userError;
 
     /** A GitletException with no message. */
     GitletException() {
         super();
+        userError = false;
     }
 
     /** A GitletException MSG as its message. */
     GitletException(String msg) {
+        this(msg, false);
+    }
+
+    /** A GitletException MSG as its message, which reports a mistake of the user if USERERROR. */
+    GitletException(String msg, boolean userError) {
         super(msg);
+        this.userError = userError;
+    }
+
+    /** Returns {@code true} if the message reports a mistake of the user rather than a failure. */
+    boolean isUserError() {
+        return userError;
     }
 
 }
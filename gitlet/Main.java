@@ -2,6 +2,8 @@ package gitlet;
 
 import java.io.IOException;
 import java.io.File;
+import java.util.Arrays;
+import java.util.function.Supplier;
 
 import static gitlet.Utils.exit;
 
@@ -16,101 +18,186 @@ public class Main {
         }
     }
 
+    /**
+     * Returns the maximum number of commits given to log as {@code -n N}, {@code --max-count N},
+     * or {@code --max-count=N}, and no limit if there is none.
+     * */
+    private static int parseMaxCount(String[] args) {
+        String count;
+        if (args.length == 1) {
+            return Integer.MAX_VALUE;
+        } else if (args.length == 3 && (args[1].equals("-n") || args[1].equals("--max-count"))) {
+            count = args[2];
+        } else if (args.length == 2 && args[1].startsWith("--max-count=")) {
+            count = args[1].substring("--max-count=".length());
+        } else {
+            exit("Incorrect operands.");
+            return 0;
+        }
+        try {
+            int n = Integer.parseInt(count);
+            if (n >= 0) {
+                return n;
+            }
+        } catch (NumberFormatException excp) {
+            // reported below
+        }
+        exit("Incorrect operands.");
+        return 0;
+    }
+
+    /** The current directory. */
+    static final File CWD = new File(System.getProperty("user.dir"));
+
+    /** A command, whose operands were checked, run on a repository. */
+    private interface Command {
+        void run(Repository repository) throws IOException;
+    }
+
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  or batch [-z] to run commands read from standard input, see {@link BatchSession}.
+     *  The message of a mistake of the user is printed, see {@link Utils#exit(String, Object...)}.
+     *  A command that lost a race with another process prints its message and exits with status 1,
+     *  so that it can be retried, see {@link RefLock}.
      */
     public static void main(String[] args) throws IOException {
+        try {
+            if (args.length > 0 && (args[0].equals("batch") || args[0].equals("--stdin"))) {
+                BatchSession.run(args);
+            } else {
+                run(args, () -> Repository.open(CWD));
+            }
+        } catch (ConcurrentUpdateException excp) {
+            System.out.print(excp.getMessage());
+            System.exit(1);
+        } catch (GitletException excp) {
+            if (!excp.isUserError()) {
+                throw excp;
+            }
+            System.out.print(excp.getMessage());
+            System.exit(0);
+        }
+    }
 
+    /**
+     * Runs one command in the current directory.
+     * Commands other than init run on the repository returned by {@code opener},
+     * which is only called once the operands were checked.
+     * */
+    static void run(String[] args, Supplier<Repository> opener) throws IOException {
         if (args.length == 0) {
             exit("Please enter a command.");
         }
+        if (args[0].equals("init")) {
+            validateNumArgs(args, 1);
+            InitRepository.initializeRepository(CWD);
+            return;
+        }
+        Command command = parse(args);
+        Repository repository = opener.get();
+        command.run(repository);
+        repository.saveIndexStats();
+        if (Boolean.getBoolean("gitlet.stats")) {
+            repository.printStats();
+        }
+    }
 
-        String firstArg = args[0];
-
-        switch (firstArg) {
-            case "init" -> {
-                validateNumArgs(args, 1);
-                InitRepository.initializeRepository();
-            }
+    /** Returns the command given by ARGS, other than init. */
+    private static Command parse(String[] args) {
+        switch (args[0]) {
             case "add" -> {
-                validateNumArgs(args, 2);
-                Repository.addFile(args[1]);
+                if (args.length < 2) {
+                    exit("Incorrect operands.");
+                }
+                return r -> r.addFiles(Arrays.copyOfRange(args, 1, args.length));
             }
             case "commit" -> {
                 validateNumArgs(args, 2);
-                Repository.commit(args[1]);
+                return r -> r.commit(args[1]);
             }
             case "rm" -> {
                 validateNumArgs(args, 2);
-                Repository.removeFile(args[1]);
+                return r -> r.removeFile(args[1]);
             }
             case "log" -> {
-                validateNumArgs(args, 1);
-                Repository.printLog();
+                int maxCount = parseMaxCount(args);
+                return r -> r.printLog(maxCount);
             }
             case "global-log" -> {
                 validateNumArgs(args, 1);
-                Repository.printGlobalLog();
+                return Repository::printGlobalLog;
             }
             case "find" -> {
+                if (args.length == 3 && (args[1].equals("-E") || args[1].equals("--regex"))) {
+                    return r -> r.findCommitByPattern(args[2]);
+                }
                 validateNumArgs(args, 2);
-                Repository.findCommit(args[1]);
+                return r -> r.findCommit(args[1]);
             }
             case "status" -> {
                 validateNumArgs(args, 1);
-                Repository.printStatus();
+                return Repository::printStatus;
             }
             case "checkout" -> {
                 if (args.length < 2 || args.length > 4) {
                     exit("Incorrect operands.");
                 }
                 if (args[1].equals("--") && args.length == 3) {
-                    Repository.checkoutFileToHeadCommit(args[2]);
+                    return r -> r.checkoutFileToHeadCommit(args[2]);
                 } else if (args.length == 2) {
-                    Repository.checkoutBranch(args[1]);
+                    return r -> r.checkoutBranch(args[1]);
                 } else if (args.length == 4 && args[2].equals("--")) {
-                    Repository.checkoutFileToCommit(args[3], args[1]);
-                } else {
-                    exit("Incorrect operands.");
+                    return r -> r.checkoutFileToCommit(args[3], args[1]);
                 }
+                exit("Incorrect operands.");
             }
             case "branch" -> {
                 validateNumArgs(args, 2);
-                Repository.addBranch(args[1]);
+                return r -> r.addBranch(args[1]);
             }
             case "rm-branch" -> {
                 validateNumArgs(args, 2);
-                Repository.removeBranch(args[1]);
+                return r -> r.removeBranch(args[1]);
             }
             case "reset" -> {
                 validateNumArgs(args, 2);
-                Repository.resetToCommit(args[1]);
+                return r -> r.resetToCommit(args[1]);
             }
             case "merge" -> {
                 validateNumArgs(args, 2);
-                Repository.mergeBranch(args[1]);
+                return r -> r.mergeBranch(args[1]);
             }
             case "add-remote" -> {
                 validateNumArgs(args, 3);
-                Repository.addRemote(args[1], args[2]);
+                return r -> r.addRemote(args[1], args[2]);
             }
             case "rm-remote" -> {
                 validateNumArgs(args, 2);
-                Repository.removeRemote(args[1]);
+                return r -> r.removeRemote(args[1]);
             }
             case "push" -> {
                 validateNumArgs(args, 3);
-                Repository.pushRemote(args[1], args[2]);
+                return r -> r.pushRemote(args[1], args[2]);
             }
             case "fetch" -> {
                 validateNumArgs(args, 3);
-                Repository.fetchRemote(args[1], args[2]);
+                return r -> r.fetchRemote(args[1], args[2]);
             }
             case "pull" -> {
                 validateNumArgs(args, 3);
-                Repository.pullRemote(args[1], args[2]);
+                return r -> r.pullRemote(args[1], args[2]);
+            }
+            case "repack" -> {
+                validateNumArgs(args, 1);
+                return Repository::repack;
+            }
+            case "migrate" -> {
+                validateNumArgs(args, 1);
+                return Repository::migrate;
             }
             default -> exit("No command with that name exists.");
         }
+        return null;
     }
 }
@@ -0,0 +1,599 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents an inverted index of commit messages, so that find reads no commit objects.
+ * Every trigram, i.e., three consecutive bytes of a UTF-8 encoded message, maps to a posting list,
+ * the sorted positions of the commits whose message contains it.
+ * A substring query intersects the posting lists of its trigrams,
+ * and only the messages of the commits left are compared with the query.
+ * A commit is only indexed after its parents, so an indexed commit has all its ancestors indexed.
+ * <p>
+ * The index is persisted in .gitlet/message-index, a memory-mapped file laid out as
+ * <ul>
+ * <li>header: magic number, version, number of commits N, number of trigrams T</li>
+ * <li>fanout table: 256 ints, as in {@link CommitGraph}</li>
+ * <li>N raw 20-byte commit IDs, sorted</li>
+ * <li>N + 1 ints, the offset of each message in the messages, and the total size of the messages</li>
+ * <li>T ints, the trigrams, sorted</li>
+ * <li>T + 1 ints, the offset of the posting list of each trigram in the postings, and the number of postings</li>
+ * <li>the postings, positions of commits as ints</li>
+ * <li>the messages, UTF-8 encoded</li>
+ * </ul>
+ * Commits that are not in the file yet are kept in memory, and {@link #save()} appends them to
+ * .gitlet/message-index.delta as records of a raw commit ID, the length of the message, and the message,
+ * so a commit costs a small write instead of rewriting the whole index.
+ * The delta is merged into the file once it holds {@link #MAX_DELTA} commits, or fewer after a query,
+ * since the messages of commits in the delta are compared one by one, and by repack.
+ * As in {@link CommitGraph}, positions less than N are in the file, the others are in memory.
+ * Queries add commits in memory, so the methods are synchronized for concurrent readers.
+ *
+ * @author Zichuan Wang
+ */
+public class MessageIndex {
+
+    /** Magic number at the beginning of the file. */
+    private static final int MAGIC = 0x474d5358;  // "GMSX"
+    private static final int VERSION = 1;
+    private static final int RAW_ID_LENGTH = ObjectId.RAW_LENGTH;
+    private static final int FANOUT_SIZE = 256;
+    private static final int HEADER_SIZE = 16;
+    private static final int IDS_START = HEADER_SIZE + 4 * FANOUT_SIZE;
+    private static final int NONE = -1;
+    /** Most commits kept in the delta file by {@link #save()}. */
+    private static final int MAX_DELTA = 1024;
+    /** Most commits kept in the delta file after a query. */
+    static final int MAX_DELTA_AFTER_QUERY = 64;
+
+    /** The repository whose commits are read when they are not indexed yet. */
+    private final Repository repository;
+    /** The index file, which may not exist. */
+    private final File indexFile;
+    /** The commits appended since the index file was written, which may not exist. */
+    private final File deltaFile;
+    /** Number of bytes of the delta file that were read or written by this process. */
+    private long deltaLength = 0;
+    /** The mapped file, null if the file doesn't exist. */
+    private MappedByteBuffer buffer;
+    /** Number of commits in the file. */
+    private int count;
+    /** Number of trigrams in the file. */
+    private int trigramCount;
+    private int messageOffsetsStart;
+    private int trigramsStart;
+    private int postingStartsStart;
+    private int postingsStart;
+    private int messagesStart;
+    /** Commits that are not in the file, the i-th of which is at position count + i. */
+    private final List<ObjectId> newIDs = new ArrayList<>();
+    private final List<String> newMessages = new ArrayList<>();
+    /** Positions of commits that are not in the file. */
+    private final Map<ObjectId, Integer> newPositions = new HashMap<>();
+    private boolean loaded = false;
+    /** Number of commits in memory that are in the delta file. */
+    private int saved = 0;
+
+    public MessageIndex(Repository repository, File indexFile) {
+        this.repository = repository;
+        this.indexFile = indexFile;
+        this.deltaFile = new File(indexFile.getPath() + ".delta");
+    }
+
+    /** Maps the file into memory and reads the delta file on first use. */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (indexFile.isFile()) {
+            map();
+        }
+        loadDelta();
+    }
+
+    private void map() {
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw error("Corrupted message index %s.", indexFile);
+        }
+        count = buffer.getInt(8);
+        trigramCount = buffer.getInt(12);
+        messageOffsetsStart = IDS_START + count * RAW_ID_LENGTH;
+        trigramsStart = messageOffsetsStart + 4 * (count + 1);
+        postingStartsStart = trigramsStart + 4 * trigramCount;
+        postingsStart = postingStartsStart + 4 * (trigramCount + 1);
+        messagesStart = postingsStart + 4 * buffer.getInt(postingStartsStart + 4 * trigramCount);
+    }
+
+    /**
+     * Reads the commits in the delta file into memory.
+     * A record cut short by a crash is ignored, and the delta is merged by the next {@link #save()}.
+     * */
+    private void loadDelta() {
+        if (!deltaFile.isFile()) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(readContents(deltaFile));
+        while (in.remaining() >= RAW_ID_LENGTH + 4) {
+            byte[] raw = new byte[RAW_ID_LENGTH];
+            in.get(raw);
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                break;
+            }
+            byte[] message = new byte[length];
+            in.get(message);
+            ObjectId id = ObjectId.fromRaw(raw);
+            // a crash between writing the file and deleting the delta leaves commits in both
+            if (!contains(id)) {
+                append(id, new String(message, StandardCharsets.UTF_8));
+            }
+            deltaLength = in.position();
+        }
+        saved = newIDs.size();
+    }
+
+    /** Returns the number of commits in the file whose first byte of ID is less than {@code firstByte}. */
+    private int fanoutBefore(int firstByte) {
+        return firstByte == 0 ? 0 : buffer.getInt(HEADER_SIZE + 4 * (firstByte - 1));
+    }
+
+    /** Returns the position of the commit in the file, or -1 if it is not there. */
+    private int indexOf(ObjectId id) {
+        if (buffer == null) {
+            return NONE;
+        }
+        int firstByte = id.getFirstByte();
+        int lo = fanoutBefore(firstByte);
+        int hi = fanoutBefore(firstByte + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = id.compareTo(buffer, IDS_START + mid * RAW_ID_LENGTH);
+            if (c > 0) {
+                lo = mid + 1;
+            } else if (c < 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns {@code true} if the commit is indexed. */
+    private boolean contains(ObjectId id) {
+        return indexOf(id) != NONE || newPositions.containsKey(id);
+    }
+
+    private ObjectId getID(int pos) {
+        if (pos < count) {
+            return ObjectId.fromBuffer(buffer, IDS_START + pos * RAW_ID_LENGTH);
+        }
+        return newIDs.get(pos - count);
+    }
+
+    /** Returns the UTF-8 encoded message of the commit at the position. */
+    private byte[] getMessageBytes(int pos) {
+        if (pos >= count) {
+            return newMessages.get(pos - count).getBytes(StandardCharsets.UTF_8);
+        }
+        int start = buffer.getInt(messageOffsetsStart + 4 * pos);
+        int end = buffer.getInt(messageOffsetsStart + 4 * (pos + 1));
+        byte[] message = new byte[end - start];
+        buffer.get(messagesStart + start, message);
+        return message;
+    }
+
+    private String getMessage(int pos) {
+        if (pos >= count) {
+            return newMessages.get(pos - count);
+        }
+        return new String(getMessageBytes(pos), StandardCharsets.UTF_8);
+    }
+
+    private void append(ObjectId id, String message) {
+        newPositions.put(id, count + newIDs.size());
+        newIDs.add(id);
+        newMessages.add(message);
+    }
+
+    /** Indexes a new commit if its parents are indexed, otherwise leaves it to {@link #update(ObjectId)}. */
+    synchronized void addCommit(ObjectId id, Commit commit) {
+        load();
+        if (contains(id)) {
+            return;
+        }
+        ObjectId parentID = commit.getParentHashValue();
+        ObjectId secondParentID = commit.getSecondParentHashValue();
+        if ((parentID == null || contains(parentID)) && (secondParentID == null || contains(secondParentID))) {
+            append(id, commit.getMessage());
+        }
+    }
+
+    /** Indexes the commit and all its ancestors that are not indexed yet, parents before children. */
+    synchronized void update(ObjectId head) {
+        load();
+        Deque<ObjectId> stack = new ArrayDeque<>();
+        stack.push(head);
+        while (!stack.isEmpty()) {
+            ObjectId top = stack.peek();
+            if (contains(top)) {
+                stack.pop();
+                continue;
+            }
+            Commit c = repository.readCommitObjectByID(top);
+            ObjectId parentID = c.getParentHashValue();
+            ObjectId secondParentID = c.getSecondParentHashValue();
+            if (parentID != null && !contains(parentID)) {
+                stack.push(parentID);
+                continue;
+            }
+            if (secondParentID != null && !contains(secondParentID)) {
+                stack.push(secondParentID);
+                continue;
+            }
+            stack.pop();
+            append(top, c.getMessage());
+        }
+    }
+
+    /** Returns the trigram at {@code bytes[i, i + 3)}. */
+    private static int trigramAt(byte[] bytes, int i) {
+        return (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+    }
+
+    /** Returns the distinct trigrams of the bytes, sorted. */
+    private static int[] trigramsOf(byte[] bytes) {
+        TreeSet<Integer> trigrams = new TreeSet<>();
+        for (int i = 0; i + 3 <= bytes.length; i += 1) {
+            trigrams.add(trigramAt(bytes, i));
+        }
+        return trigrams.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** Returns the posting list of the trigram in the file, empty if no message contains it. */
+    private int[] getPostings(int trigram) {
+        int lo = 0;
+        int hi = trigramCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int t = buffer.getInt(trigramsStart + 4 * mid);
+            if (t < trigram) {
+                lo = mid + 1;
+            } else if (t > trigram) {
+                hi = mid - 1;
+            } else {
+                int start = buffer.getInt(postingStartsStart + 4 * mid);
+                int end = buffer.getInt(postingStartsStart + 4 * (mid + 1));
+                int[] postings = new int[end - start];
+                for (int i = 0; i < postings.length; i += 1) {
+                    postings[i] = buffer.getInt(postingsStart + 4 * (start + i));
+                }
+                return postings;
+            }
+        }
+        return new int[0];
+    }
+
+    /** Returns the positions in the file that contain every trigram of {@code literal}, all if it is too short. */
+    private int[] candidatesInFile(String literal) {
+        byte[] bytes = literal.getBytes(StandardCharsets.UTF_8);
+        if (buffer == null) {
+            return new int[0];
+        }
+        if (bytes.length < 3) {
+            int[] all = new int[count];
+            Arrays.setAll(all, i -> i);
+            return all;
+        }
+        List<int[]> lists = new ArrayList<>();
+        for (int trigram : trigramsOf(bytes)) {
+            int[] postings = getPostings(trigram);
+            if (postings.length == 0) {
+                return postings;
+            }
+            lists.add(postings);
+        }
+        // shortest first, so the intersection shrinks fast
+        lists.sort(Comparator.comparingInt(l -> l.length));
+        int[] result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.length > 0; i += 1) {
+            result = intersect(result, lists.get(i));
+        }
+        return result;
+    }
+
+    /** Returns the positions in both sorted lists. */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        int j = 0;
+        for (int x : a) {
+            // galloping would help with very uneven lists, a merge is enough here
+            while (j < b.length && b[j] < x) {
+                j += 1;
+            }
+            if (j < b.length && b[j] == x) {
+                result[n++] = x;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Returns the IDs of the indexed commits whose message contains {@code text}. */
+    synchronized List<ObjectId> findContaining(String text) {
+        return find(text, message -> message.contains(text));
+    }
+
+    /**
+     * Returns the IDs of the indexed commits whose message contains a match of the regular expression.
+     * Only commits whose message contains a literal that every match must contain are tested.
+     * */
+    synchronized List<ObjectId> findMatching(Pattern pattern) {
+        String literal = pattern.flags() == 0 ? requiredLiteral(pattern.pattern()) : "";
+        return find(literal, message -> pattern.matcher(message).find());
+    }
+
+    private List<ObjectId> find(String literal, Predicate<String> matches) {
+        load();
+        List<ObjectId> found = new ArrayList<>();
+        for (int pos : candidatesInFile(literal)) {
+            if (matches.test(getMessage(pos))) {
+                found.add(getID(pos));
+            }
+        }
+        for (int i = 0; i < newIDs.size(); i += 1) {
+            if (matches.test(newMessages.get(i))) {
+                found.add(newIDs.get(i));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the longest run of literal characters that every match of the regular expression contains,
+     * or the empty string if there is none that is easy to tell.
+     * Characters inside groups or character classes, and characters made optional by a quantifier, are skipped.
+     * Alternations, inline flags, nested or intersected character classes,
+     * and escapes followed by more than one character give up.
+     * */
+    static String requiredLiteral(String regex) {
+        if (regex.contains("|") || regex.contains("(?")) {
+            return "";
+        }
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i += 1) {
+            char ch = regex.charAt(i);
+            char literal = 0;
+            if (inClass) {
+                if (ch == '[' || (ch == '&' && regex.startsWith("&&", i))) {
+                    // nested or intersected classes may end later than the first ']'
+                    return "";
+                } else if (ch == '\\') {
+                    i += 1;
+                } else if (ch == ']') {
+                    inClass = false;
+                }
+            } else if (ch == '\\' && i + 1 < regex.length()) {
+                char next = regex.charAt(i + 1);
+                i += 1;
+                if ("xu0pPkcNQ".indexOf(next) >= 0) {
+                    return "";
+                } else if (!Character.isLetterOrDigit(next)) {
+                    literal = next;
+                }
+            } else if (ch == '[') {
+                inClass = true;
+            } else if (ch == '(') {
+                depth += 1;
+            } else if (ch == ')') {
+                depth -= 1;
+            } else if ("*?{".indexOf(ch) >= 0) {
+                if (run.length() > 0) {
+                    // the last character may not be there
+                    run.setLength(run.length() - 1);
+                }
+                if (ch == '{') {
+                    i = Math.max(i, regex.indexOf('}', i));
+                }
+            } else if (".+^$".indexOf(ch) < 0 && depth == 0) {
+                literal = ch;
+            }
+            if (literal != 0 && depth == 0) {
+                run.append(literal);
+                continue;
+            }
+            if (run.length() > best.length()) {
+                best = run.toString();
+            }
+            run.setLength(0);
+        }
+        return run.length() > best.length() ? run.toString() : best;
+    }
+
+    /** Writes the commits added since the index was loaded or last saved, see {@link #save(int)}. */
+    synchronized void save() {
+        save(MAX_DELTA);
+    }
+
+    /**
+     * Appends the commits added since the index was loaded or last saved to the delta file,
+     * or merges all commits into the index file if the delta would hold more than {@code maxDelta} commits.
+     * The delta is merged as well if it was not entirely read or written by this process,
+     * e.g., its last record was cut short.
+     * */
+    synchronized void save(int maxDelta) {
+        load();
+        if (newIDs.size() > maxDelta || deltaFile.length() != deltaLength) {
+            merge();
+        } else if (newIDs.size() > saved) {
+            appendDelta();
+        }
+    }
+
+    /** Appends the records of the commits that are not in the delta file yet in one write. */
+    private void appendDelta() {
+        int size = 0;
+        List<byte[]> messages = new ArrayList<>();
+        for (int i = saved; i < newIDs.size(); i += 1) {
+            byte[] message = newMessages.get(i).getBytes(StandardCharsets.UTF_8);
+            messages.add(message);
+            size += RAW_ID_LENGTH + 4 + message.length;
+        }
+        ByteBuffer records = ByteBuffer.allocate(size);
+        for (int i = saved; i < newIDs.size(); i += 1) {
+            byte[] message = messages.get(i - saved);
+            records.put(newIDs.get(i).toRaw());
+            records.putInt(message.length);
+            records.put(message);
+        }
+        try {
+            Files.write(deltaFile.toPath(), records.array(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        deltaLength += size;
+        saved = newIDs.size();
+    }
+
+    /** Writes all commits into the index file, deletes the delta file, and maps the new file. */
+    private void merge() {
+        int total = count + newIDs.size();
+        Integer[] order = new Integer[total];
+        ObjectId[] ids = new ObjectId[total];
+        for (int i = 0; i < total; i += 1) {
+            order[i] = i;
+            ids[i] = getID(i);
+        }
+        Arrays.sort(order, Comparator.comparing(i -> ids[i]));
+        int[] newPosition = new int[total];
+        for (int i = 0; i < total; i += 1) {
+            newPosition[order[i]] = i;
+        }
+        int[] fanout = new int[FANOUT_SIZE];
+        for (ObjectId id : ids) {
+            fanout[id.getFirstByte()] += 1;
+        }
+        for (int i = 1; i < FANOUT_SIZE; i += 1) {
+            fanout[i] += fanout[i - 1];
+        }
+
+        // trigrams of the commits in memory
+        SortedMap<Integer, List<Integer>> newPostings = new TreeMap<>();
+        for (int i = 0; i < newIDs.size(); i += 1) {
+            for (int trigram : trigramsOf(newMessages.get(i).getBytes(StandardCharsets.UTF_8))) {
+                newPostings.computeIfAbsent(trigram, k -> new ArrayList<>()).add(newPosition[count + i]);
+            }
+        }
+        for (List<Integer> postings : newPostings.values()) {
+            Collections.sort(postings);
+        }
+        SortedSet<Integer> trigrams = new TreeSet<>(newPostings.keySet());
+        for (int i = 0; i < trigramCount; i += 1) {
+            trigrams.add(buffer.getInt(trigramsStart + 4 * i));
+        }
+
+        // a file of its own, so concurrent writers never write into the same file
+        File tmpFile = null;
+        try {
+            tmpFile = File.createTempFile(indexFile.getName(), null, indexFile.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(total);
+                out.writeInt(trigrams.size());
+                for (int n : fanout) {
+                    out.writeInt(n);
+                }
+                for (int pos : order) {
+                    out.write(ids[pos].toRaw());
+                }
+                int offset = 0;
+                for (int pos : order) {
+                    out.writeInt(offset);
+                    offset += getMessageBytes(pos).length;
+                }
+                out.writeInt(offset);
+                for (int trigram : trigrams) {
+                    out.writeInt(trigram);
+                }
+                List<int[]> postingLists = new ArrayList<>();
+                int start = 0;
+                for (int trigram : trigrams) {
+                    int[] postings = mergedPostings(trigram, newPosition, newPostings.get(trigram));
+                    postingLists.add(postings);
+                    out.writeInt(start);
+                    start += postings.length;
+                }
+                out.writeInt(start);
+                for (int[] postings : postingLists) {
+                    for (int pos : postings) {
+                        out.writeInt(pos);
+                    }
+                }
+                for (int pos : order) {
+                    out.write(getMessageBytes(pos));
+                }
+            }
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(deltaFile.toPath());
+        } catch (IOException excp) {
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        newIDs.clear();
+        newMessages.clear();
+        newPositions.clear();
+        saved = 0;
+        deltaLength = 0;
+        map();
+    }
+
+    /**
+     * Returns the posting list of the trigram in the file, moved to the new positions,
+     * merged with the sorted positions of commits in memory.
+     * Commits in the file keep their order, so the moved list is still sorted.
+     * */
+    private int[] mergedPostings(int trigram, int[] newPosition, List<Integer> added) {
+        int[] old = buffer == null ? new int[0] : getPostings(trigram);
+        int addedSize = added == null ? 0 : added.size();
+        int[] merged = new int[old.length + addedSize];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < old.length || j < addedSize) {
+            if (j >= addedSize || (i < old.length && newPosition[old[i]] < added.get(j))) {
+                merged[n++] = newPosition[old[i++]];
+            } else {
+                merged[n++] = added.get(j++);
+            }
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,96 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents an in-process cache of decoded commits and trees, keyed by object ID.
+ * Objects are immutable once written, so cached objects never become stale,
+ * but callers must not modify an object returned by {@link #get(ObjectId)}.
+ * The cache holds at most {@code budget} bytes, measured by the encoded size of each object,
+ * and evicts the least recently used objects first.
+ * It is shared by the threads reading a repository, so its methods are synchronized.
+ *
+ * @author Zichuan Wang
+ */
+public class ObjectCache {
+
+    /** A cached object and its encoded size. */
+    private static class Entry {
+        private final Object value;
+        private final long size;
+
+        Entry(Object value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /** Maximum total size of cached objects in bytes. */
+    private final long budget;
+    /** Cached objects, least recently used first. */
+    private final LinkedHashMap<ObjectId, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** Total size of cached objects in bytes. */
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public ObjectCache(long budget) {
+        this.budget = budget;
+    }
+
+    /** Returns the cached object of the ID, or null if it is not cached. */
+    synchronized Object get(ObjectId id) {
+        Entry e = entries.get(id);
+        if (e == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return e.value;
+    }
+
+    /**
+     * Caches an object, evicting the least recently used objects to stay within the budget.
+     * An object larger than the whole budget is not cached.
+     *
+     * @param id ID of the object.
+     * @param value The decoded object.
+     * @param encodedSize Size of the encoded object in bytes.
+     * */
+    synchronized void put(ObjectId id, Object value, long encodedSize) {
+        if (encodedSize > budget) {
+            return;
+        }
+        Entry old = entries.put(id, new Entry(value, encodedSize));
+        if (old != null) {
+            size -= old.size;
+        }
+        size += encodedSize;
+        Iterator<Map.Entry<ObjectId, Entry>> it = entries.entrySet().iterator();
+        while (size > budget) {
+            Map.Entry<ObjectId, Entry> eldest = it.next();
+            size -= eldest.getValue().size;
+            it.remove();
+        }
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Returns the number of cached objects. */
+    synchronized int count() {
+        return entries.size();
+    }
+
+    /** Returns the total size of cached objects in bytes. */
+    synchronized long size() {
+        return size;
+    }
+}
@@ -0,0 +1,382 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Encodes commits, directory trees, and the staging area in a compact binary format,
+ * replacing Java serialization.
+ * Every encoding starts with a 4-byte header: magic 'G' 'L', format version, and object type.
+ * <ul>
+ * <li>Hash values are stored as raw 20 bytes.</li>
+ * <li>Lengths and counts are stored as varints.</li>
+ * <li>Dates are stored as epoch milliseconds.</li>
+ * <li>Paths are stored length-prefixed, sharing the common prefix with the previous path.</li>
+ * </ul>
+ * Objects written by older versions of gitlet are Java-serialized, see {@link #isLegacy(byte[])}.
+ * Flat file trees ({@link #TREE}) are no longer written, but can still be read;
+ * commits now point to a {@link DirectoryTree}.
+ *
+ * @author Zichuan Wang
+ */
+public class ObjectCodec {
+
+    private static final byte MAGIC_0 = 'G';
+    private static final byte MAGIC_1 = 'L';
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 4;
+
+    /** Object types. */
+    static final byte COMMIT = 1;
+    static final byte TREE = 2;
+    static final byte STAGE = 3;
+    static final byte DIRECTORY = 4;
+
+    /** Flags of the optional hash values of a commit. */
+    private static final int HAS_PARENT = 1;
+    private static final int HAS_SECOND_PARENT = 2;
+    private static final int HAS_TREE = 4;
+
+    /** Returns {@code true} if the bytes are a Java-serialized object. */
+    static boolean isLegacy(byte[] bytes) {
+        return bytes.length >= 2 && bytes[0] == (byte) 0xac && bytes[1] == (byte) 0xed;
+    }
+
+    /** Returns the encoding of {@code obj}, which is a Commit, a DirectoryTree, a FileTree, or a Stage. */
+    static byte[] encode(Object obj) {
+        if (obj instanceof Commit) {
+            return encodeCommit((Commit) obj);
+        } else if (obj instanceof DirectoryTree) {
+            return encodeDirectory((DirectoryTree) obj);
+        } else if (obj instanceof FileTree) {
+            return encodeTree((FileTree) obj);
+        } else if (obj instanceof Stage) {
+            return encodeStage((Stage) obj);
+        }
+        throw new IllegalArgumentException("improper type to encode");
+    }
+
+    /** Returns the object decoded from {@code bytes}, casting it to {@code expectedClass}. */
+    static <T> T decode(byte[] bytes, Class<T> expectedClass) {
+        Reader in = new Reader(bytes);
+        if (bytes.length < HEADER_SIZE || in.readByte() != MAGIC_0 || in.readByte() != MAGIC_1) {
+            throw new IllegalArgumentException("not a gitlet object");
+        }
+        if (in.readByte() != VERSION) {
+            throw new IllegalArgumentException("unsupported object version");
+        }
+        byte type = in.readByte();
+        Object obj = switch (type) {
+            case COMMIT -> decodeCommit(in);
+            case TREE -> decodeTree(in);
+            case STAGE -> decodeStage(in);
+            case DIRECTORY -> decodeDirectory(in);
+            default -> throw new IllegalArgumentException("unknown object type");
+        };
+        try {
+            return expectedClass.cast(obj);
+        } catch (ClassCastException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a writer with the header of the specified type. */
+    private static Writer newWriter(byte type) {
+        Writer out = new Writer();
+        out.writeByte(MAGIC_0);
+        out.writeByte(MAGIC_1);
+        out.writeByte(VERSION);
+        out.writeByte(type);
+        return out;
+    }
+
+    private static byte[] encodeCommit(Commit c) {
+        Writer out = newWriter(COMMIT);
+        ObjectId parent = c.getParentHashValue();
+        ObjectId secondParent = c.getSecondParentHashValue();
+        ObjectId tree = c.getTreeHashValue();
+        int flags = (parent == null ? 0 : HAS_PARENT)
+                | (secondParent == null ? 0 : HAS_SECOND_PARENT)
+                | (tree == null ? 0 : HAS_TREE);
+        out.writeByte(flags);
+        if (parent != null) {
+            out.writeHash(parent);
+        }
+        if (secondParent != null) {
+            out.writeHash(secondParent);
+        }
+        if (tree != null) {
+            out.writeHash(tree);
+        }
+        out.writeVarLong(c.getDate().getTime());
+        out.writeString(c.getMessage());
+        return out.toByteArray();
+    }
+
+    private static Commit decodeCommit(Reader in) {
+        int flags = in.readByte();
+        ObjectId parent = (flags & HAS_PARENT) != 0 ? in.readHash() : null;
+        ObjectId secondParent = (flags & HAS_SECOND_PARENT) != 0 ? in.readHash() : null;
+        ObjectId tree = (flags & HAS_TREE) != 0 ? in.readHash() : null;
+        Date date = new Date(in.readVarLong());
+        String message = in.readString();
+        return new Commit(message, date, parent, secondParent, tree);
+    }
+
+    private static byte[] encodeTree(FileTree tree) {
+        Writer out = newWriter(TREE);
+        writeEntries(out, tree.getStage());
+        return out.toByteArray();
+    }
+
+    private static FileTree decodeTree(Reader in) {
+        FileTree tree = new FileTree();
+        int count = in.readVarInt();
+        String path = "";
+        for (int i = 0; i < count; i += 1) {
+            path = in.readPath(path);
+            tree.put(new File(path), in.readHash());
+        }
+        return tree;
+    }
+
+    private static byte[] encodeDirectory(DirectoryTree tree) {
+        Writer out = newWriter(DIRECTORY);
+        writeNames(out, tree.getDirectories());
+        writeNames(out, tree.getFiles());
+        return out.toByteArray();
+    }
+
+    private static DirectoryTree decodeDirectory(Reader in) {
+        DirectoryTree tree = new DirectoryTree();
+        int count = in.readVarInt();
+        for (int i = 0; i < count; i += 1) {
+            tree.putDirectory(in.readString(), in.readHash());
+        }
+        count = in.readVarInt();
+        for (int i = 0; i < count; i += 1) {
+            tree.putFile(in.readString(), in.readHash());
+        }
+        return tree;
+    }
+
+    /** Writes (name, hash value) entries. */
+    private static void writeNames(Writer out, Map<String, ObjectId> entries) {
+        out.writeVarInt(entries.size());
+        for (Map.Entry<String, ObjectId> e : entries.entrySet()) {
+            out.writeString(e.getKey());
+            out.writeHash(e.getValue());
+        }
+    }
+
+    private static byte[] encodeStage(Stage stage) {
+        Writer out = newWriter(STAGE);
+        writeEntries(out, stage.getAddStage());
+        out.writeVarInt(stage.getRemoveStage().size());
+        String path = "";
+        for (File f : stage.getRemoveStage()) {
+            out.writePath(path, f.getPath());
+            path = f.getPath();
+        }
+        out.writeVarInt(stage.getStats().size());
+        path = "";
+        for (Map.Entry<File, FileStat> e : stage.getStats().entrySet()) {
+            FileStat stat = e.getValue();
+            out.writePath(path, e.getKey().getPath());
+            out.writeHash(stat.getHashValue());
+            out.writeVarLong(stat.getSize());
+            out.writeVarLong(stat.getMtime());
+            out.writeVarLong(stat.getCtime());
+            out.writeVarLong(stat.getInode());
+            path = e.getKey().getPath();
+        }
+        return out.toByteArray();
+    }
+
+    private static Stage decodeStage(Reader in) {
+        Stage stage = new Stage();
+        int count = in.readVarInt();
+        String path = "";
+        for (int i = 0; i < count; i += 1) {
+            path = in.readPath(path);
+            stage.addToAddStage(new File(path), in.readHash());
+        }
+        count = in.readVarInt();
+        path = "";
+        for (int i = 0; i < count; i += 1) {
+            path = in.readPath(path);
+            stage.addToRemoveStage(new File(path));
+        }
+        // stat data, missing in indexes written by older versions
+        if (in.hasRemaining()) {
+            count = in.readVarInt();
+            path = "";
+            for (int i = 0; i < count; i += 1) {
+                path = in.readPath(path);
+                ObjectId hash = in.readHash();
+                stage.putStat(new File(path), new FileStat(in.readVarLong(), in.readVarLong(),
+                        in.readVarLong(), in.readVarLong(), hash));
+            }
+        }
+        return stage;
+    }
+
+    /** Writes sorted (path, hash value) entries. */
+    private static void writeEntries(Writer out, Map<File, ObjectId> entries) {
+        out.writeVarInt(entries.size());
+        String path = "";
+        for (Map.Entry<File, ObjectId> e : entries.entrySet()) {
+            out.writePath(path, e.getKey().getPath());
+            out.writeHash(e.getValue());
+            path = e.getKey().getPath();
+        }
+    }
+
+    /** Appends primitive values to a growing byte array. */
+    static class Writer {
+        private byte[] buf = new byte[256];
+        private int size = 0;
+
+        private void ensureCapacity(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+            }
+        }
+
+        void writeByte(int b) {
+            ensureCapacity(1);
+            buf[size++] = (byte) b;
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeBytes(bytes, 0, bytes.length);
+        }
+
+        void writeBytes(byte[] bytes, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, buf, size, length);
+            size += length;
+        }
+
+        /** Writes a non-negative int, 7 bits per byte, low bits first. */
+        void writeVarInt(int v) {
+            writeVarLong(v & 0xffffffffL);
+        }
+
+        /** Writes a non-negative long, 7 bits per byte, low bits first. */
+        void writeVarLong(long v) {
+            ensureCapacity(10);
+            while ((v & ~0x7fL) != 0) {
+                buf[size++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            buf[size++] = (byte) v;
+        }
+
+        /** Writes a hash value as 20 raw bytes. */
+        void writeHash(ObjectId id) {
+            ensureCapacity(ObjectId.RAW_LENGTH);
+            id.copyRawTo(buf, size);
+            size += ObjectId.RAW_LENGTH;
+        }
+
+        /** Writes a length-prefixed UTF-8 string. */
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            writeBytes(bytes);
+        }
+
+        /** Writes {@code path} as the length of the prefix shared with {@code prev} and the rest. */
+        void writePath(String prev, String path) {
+            int shared = 0;
+            int max = Math.min(prev.length(), path.length());
+            while (shared < max && prev.charAt(shared) == path.charAt(shared)) {
+                shared += 1;
+            }
+            // a surrogate pair is encoded as a whole, so the rest must not start with its low surrogate
+            if (shared > 0 && Character.isHighSurrogate(path.charAt(shared - 1))) {
+                shared -= 1;
+            }
+            writeVarInt(shared);
+            writeString(path.substring(shared));
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+    }
+
+    /** Reads primitive values from a byte array without copying it. */
+    static class Reader {
+        private final byte[] buf;
+        private int pos = 0;
+
+        Reader(byte[] bytes) {
+            buf = bytes;
+        }
+
+        private void require(int n) {
+            if (pos + n > buf.length) {
+                throw new IllegalArgumentException("truncated gitlet object");
+            }
+        }
+
+        boolean hasRemaining() {
+            return pos < buf.length;
+        }
+
+        byte readByte() {
+            require(1);
+            return buf[pos++];
+        }
+
+        /** Reads {@code length} bytes into {@code dest} starting at {@code offset}. */
+        void readBytes(byte[] dest, int offset, int length) {
+            require(length);
+            System.arraycopy(buf, pos, dest, offset, length);
+            pos += length;
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        long readVarLong() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                v |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+            throw new IllegalArgumentException("malformed varint");
+        }
+
+        /** Reads 20 raw bytes as a hash value. */
+        ObjectId readHash() {
+            require(ObjectId.RAW_LENGTH);
+            ObjectId id = ObjectId.fromRaw(buf, pos);
+            pos += ObjectId.RAW_LENGTH;
+            return id;
+        }
+
+        String readString() {
+            int length = readVarInt();
+            require(length);
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        /** Reads a path written by {@link Writer#writePath(String, String)}. */
+        String readPath(String prev) {
+            int shared = readVarInt();
+            return prev.substring(0, shared) + readString();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import static gitlet.Utils.*;
+
+/**
+ * Compresses stored objects as zlib streams.
+ * Objects written by older versions of gitlet are stored uncompressed,
+ * so stored bytes are only inflated if they are a complete zlib stream,
+ * i.e., with a valid header and checksum and nothing after its end;
+ * anything else is taken as uncompressed content.
+ *
+ * @author Zichuan Wang
+ */
+public class ObjectCompression {
+
+    /** First byte of a zlib stream with a 32K window, as written by {@link Deflater}. */
+    private static final int ZLIB_CMF = 0x78;
+
+    private ObjectCompression() {
+    }
+
+    /** Returns {@code true} if the compression level is valid, see {@link Deflater#setLevel(int)}. */
+    static boolean isValidLevel(long level) {
+        return level == Deflater.DEFAULT_COMPRESSION
+                || (level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION);
+    }
+
+    /** Returns a stream that compresses what is written to it at {@code level} into {@code out}. */
+    static OutputStream deflating(OutputStream out, int level) {
+        return new DeflaterOutputStream(out, new Deflater(level), STREAM_BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    /** Returns the content compressed at {@code level}. */
+    static byte[] deflate(byte[] content, int level) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2 + 64);
+        try (OutputStream out = deflating(bytes, level)) {
+            out.write(content);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns {@code true} if the bytes start with a zlib header. */
+    static boolean hasZlibHeader(byte[] head, int length) {
+        if (length < 2) {
+            return false;
+        }
+        int cmf = head[0] & 0xff;
+        int flg = head[1] & 0xff;
+        // no preset dictionary, header checksum
+        return cmf == ZLIB_CMF && (flg & 0x20) == 0 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    /** Returns the content of the stored bytes, inflating them if they are compressed. */
+    static byte[] inflate(byte[] stored) {
+        if (!hasZlibHeader(stored, stored.length)) {
+            return stored;
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream(stored.length);
+        try {
+            if (inflate(new ByteArrayInputStream(stored), content)) {
+                return content.toByteArray();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return stored;
+    }
+
+    /**
+     * Inflates the zlib stream read from {@code in} into {@code out}, in chunks.
+     * Returns {@code false} if {@code in} is not exactly one complete zlib stream,
+     * in which case part of it may already have been written to {@code out}.
+     * */
+    static boolean inflate(InputStream in, OutputStream out) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            byte[] input = new byte[STREAM_BUFFER_SIZE];
+            byte[] output = new byte[STREAM_BUFFER_SIZE];
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    int n = in.read(input);
+                    if (n < 0) {
+                        return false;
+                    }
+                    inflater.setInput(input, 0, n);
+                }
+                if (inflater.needsDictionary()) {
+                    return false;
+                }
+                int n = inflater.inflate(output);
+                out.write(output, 0, n);
+            }
+            return inflater.getRemaining() == 0 && in.read() < 0;
+        } catch (DataFormatException excp) {
+            return false;
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Represents the SHA-1 hash value of a blob, tree, or commit.
+ * The 20 raw bytes are held in two longs and an int,
+ * so an ObjectId is small, and equals, hashCode, and compareTo
+ * take a few primitive comparisons instead of comparing 40 characters.
+ * The order of ObjectIds is the same as the order of their hexadecimal names.
+ *
+ * @author Zichuan Wang
+ */
+public final class ObjectId implements Comparable<ObjectId> {
+
+    /** Length of a raw SHA-1 hash value in bytes. */
+    static final int RAW_LENGTH = 20;
+    /** Length of a hexadecimal SHA-1 hash value. */
+    static final int HEX_LENGTH = 40;
+
+    /** The all-zero ID, which no object has in practice. Used as a placeholder for "no object". */
+    static final ObjectId ZERO = new ObjectId(0, 0, 0);
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Bytes 0-7, 8-15 and 16-19 of the hash value, big-endian. */
+    private final long w1;
+    private final long w2;
+    private final int w3;
+
+    private ObjectId(long w1, long w2, int w3) {
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+    }
+
+    /** Returns the ObjectId of the 20 bytes starting at {@code offset} of {@code raw}. */
+    static ObjectId fromRaw(byte[] raw, int offset) {
+        return new ObjectId(readLong(raw, offset), readLong(raw, offset + 8), readInt(raw, offset + 16));
+    }
+
+    /** Returns the ObjectId of the 20 bytes of {@code raw}. */
+    static ObjectId fromRaw(byte[] raw) {
+        return fromRaw(raw, 0);
+    }
+
+    /** Returns the ObjectId of the 20 bytes starting at {@code offset} of {@code buf}. */
+    static ObjectId fromBuffer(ByteBuffer buf, int offset) {
+        return new ObjectId(buf.getLong(offset), buf.getLong(offset + 8), buf.getInt(offset + 16));
+    }
+
+    /** Returns the ObjectId of a 40-character hexadecimal name. */
+    static ObjectId fromString(String hex) {
+        if (!isId(hex)) {
+            throw new IllegalArgumentException("not an object id: " + hex);
+        }
+        return new ObjectId(parseHex(hex, 0, 16), parseHex(hex, 16, 32), (int) parseHex(hex, 32, 40));
+    }
+
+    /** Returns {@code true} if {@code s} is a 40-character lowercase hexadecimal name. */
+    static boolean isId(String s) {
+        if (s.length() != HEX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HEX_LENGTH; i += 1) {
+            char c = s.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the SHA-1 hash value of {@code content}. */
+    static ObjectId hash(byte[] content) {
+        MessageDigest md = newDigest();
+        md.update(content);
+        return fromRaw(md.digest());
+    }
+
+    /**
+     * Returns the hash value of the content of a file, read in chunks of
+     * {@link Utils#STREAM_BUFFER_SIZE} bytes, so memory use doesn't depend on the file size.
+     * Throws IllegalArgumentException in case of problems.
+     * */
+    static ObjectId hash(File file) {
+        MessageDigest md = newDigest();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] buffer = new byte[Utils.STREAM_BUFFER_SIZE];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return fromRaw(md.digest());
+    }
+
+    /** Returns a new SHA-1 message digest. */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    private static long readLong(byte[] b, int offset) {
+        long v = 0;
+        for (int i = 0; i < 8; i += 1) {
+            v = v << 8 | (b[offset + i] & 0xff);
+        }
+        return v;
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        int v = 0;
+        for (int i = 0; i < 4; i += 1) {
+            v = v << 8 | (b[offset + i] & 0xff);
+        }
+        return v;
+    }
+
+    private static long parseHex(String hex, int start, int end) {
+        long v = 0;
+        for (int i = start; i < end; i += 1) {
+            v = v << 4 | Character.digit(hex.charAt(i), 16);
+        }
+        return v;
+    }
+
+    /** Writes the 20 raw bytes into {@code dest} starting at {@code offset}. */
+    void copyRawTo(byte[] dest, int offset) {
+        for (int i = 0; i < 8; i += 1) {
+            dest[offset + i] = (byte) (w1 >>> (56 - 8 * i));
+            dest[offset + 8 + i] = (byte) (w2 >>> (56 - 8 * i));
+        }
+        for (int i = 0; i < 4; i += 1) {
+            dest[offset + 16 + i] = (byte) (w3 >>> (24 - 8 * i));
+        }
+    }
+
+    /** Returns the 20 raw bytes. */
+    byte[] toRaw() {
+        byte[] raw = new byte[RAW_LENGTH];
+        copyRawTo(raw, 0);
+        return raw;
+    }
+
+    /**
+     * Compares this with the 20 raw bytes starting at {@code offset} of {@code buf},
+     * without creating an ObjectId for them.
+     * */
+    int compareTo(ByteBuffer buf, int offset) {
+        int c = Long.compareUnsigned(w1, buf.getLong(offset));
+        if (c != 0) {
+            return c;
+        }
+        c = Long.compareUnsigned(w2, buf.getLong(offset + 8));
+        if (c != 0) {
+            return c;
+        }
+        return Integer.compareUnsigned(w3, buf.getInt(offset + 16));
+    }
+
+    /** Returns the first byte, from 0 to 255. */
+    int getFirstByte() {
+        return (int) (w1 >>> 56);
+    }
+
+    /** Returns the 40-character hexadecimal name. */
+    String name() {
+        char[] hex = new char[HEX_LENGTH];
+        for (int i = 0; i < 16; i += 1) {
+            hex[i] = HEX_DIGITS[(int) (w1 >>> (60 - 4 * i)) & 0xf];
+            hex[16 + i] = HEX_DIGITS[(int) (w2 >>> (60 - 4 * i)) & 0xf];
+        }
+        for (int i = 0; i < 8; i += 1) {
+            hex[32 + i] = HEX_DIGITS[(w3 >>> (28 - 4 * i)) & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /** Returns the first {@code n} characters of the hexadecimal name. */
+    String abbreviate(int n) {
+        return name().substring(0, n);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) o;
+        return w1 == other.w1 && w2 == other.w2 && w3 == other.w3;
+    }
+
+    /** The bits of a SHA-1 hash value are already uniformly distributed. */
+    @Override
+    public int hashCode() {
+        return (int) (w1 >>> 32);
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        int c = Long.compareUnsigned(w1, other.w1);
+        if (c != 0) {
+            return c;
+        }
+        c = Long.compareUnsigned(w2, other.w2);
+        if (c != 0) {
+            return c;
+        }
+        return Integer.compareUnsigned(w3, other.w3);
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+}
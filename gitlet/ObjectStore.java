@@ -0,0 +1,691 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the object database in a .gitlet/objects directory.
+ * An object is either loose, i.e., stored in its own file objects/xx/xxxx...,
+ * or packed, i.e., stored in one of the packs in objects/pack.
+ * Readers don't need to know where an object lives.
+ * New objects are always written loose, and {@link #repack(Collection, int, long)} folds them into a pack.
+ * A loose object is written to a temporary file first and renamed into place,
+ * so a crash never leaves a torn object behind.
+ * Objects are stored compressed, see {@link ObjectCompression};
+ * hash values are computed on the uncompressed content.
+ * A pack may store a version of a file as a delta against another version, see {@link PackFile}.
+ * Files of at least {@code chunkThreshold} bytes are stored as chunks, see {@link ChunkList}.
+ *
+ * @author Zichuan Wang
+ */
+public class ObjectStore {
+
+    /** Prefix of temporary files that are renamed to loose objects once complete. */
+    private static final String TEMP_PREFIX = "tmp_obj_";
+    /** File in the objects directory whose presence means every object is compressed. */
+    private static final String COMPRESSED_MARKER = "compressed";
+
+    /** The objects directory. */
+    private final File objectsDir;
+    /** The objects/pack directory. */
+    private final File packDir;
+    /** Packs in packDir, loaded on first use. */
+    private List<PackFile> packs;
+    /** Compression level of new objects. */
+    private final int compressionLevel;
+    /** Files of at least this many bytes are inserted as chunks. */
+    private final long chunkThreshold;
+    /** See {@link #isAllCompressed()}, null until it is checked. */
+    private Boolean allCompressed;
+
+    public ObjectStore(File objectsDir, int compressionLevel, long chunkThreshold) {
+        this.objectsDir = objectsDir;
+        this.packDir = join(objectsDir, "pack");
+        this.compressionLevel = compressionLevel;
+        this.chunkThreshold = chunkThreshold;
+    }
+
+    /** Returns the loose object file of the specified hash value, which may not exist. */
+    File getLooseFile(ObjectId hashValue) {
+        return join(objectsDir, Repository.getRelFileInObjectsByID(hashValue).toString());
+    }
+
+    /** Returns all packs. Synchronized since objects may be read by several threads. */
+    private synchronized List<PackFile> getPacks() {
+        if (packs == null) {
+            packs = listPacks(Map.of());
+        }
+        return packs;
+    }
+
+    /**
+     * Lists the packs again, since another process may have repacked after they were listed,
+     * replacing the packs and deleting the loose objects it packed.
+     * Packs that are still there are kept, so their opened files and caches are reused.
+     * */
+    private synchronized void reloadPacks() {
+        Map<File, PackFile> loaded = new HashMap<>();
+        for (PackFile pack : getPacks()) {
+            loaded.put(pack.getIndexFile(), pack);
+        }
+        packs = listPacks(loaded);
+    }
+
+    /** Returns the packs in the pack directory, taken from {@code loaded} by index file if they are there. */
+    private List<PackFile> listPacks(Map<File, PackFile> loaded) {
+        List<PackFile> listed = new ArrayList<>();
+        List<String> names = plainFilenamesIn(packDir);
+        if (names == null) {
+            return listed;
+        }
+        for (String name : names) {
+            if (!name.endsWith(PackFile.INDEX_SUFFIX)) {
+                continue;
+            }
+            File indexFile = join(packDir, name);
+            if (loaded.containsKey(indexFile)) {
+                listed.add(loaded.get(indexFile));
+                continue;
+            }
+            try {
+                listed.add(PackFile.load(indexFile));
+            } catch (IllegalArgumentException excp) {
+                // deleted by another process since it was listed
+                if (indexFile.isFile()) {
+                    throw excp;
+                }
+            }
+        }
+        return listed;
+    }
+
+    /**
+     * Returns {@code true} if the object is either loose or packed.
+     * Packs are searched first, so packed objects cost no file system access.
+     * */
+    boolean contains(ObjectId hashValue) {
+        for (PackFile pack : getPacks()) {
+            if (pack.contains(hashValue)) {
+                return true;
+            }
+        }
+        return getLooseFile(hashValue).isFile();
+    }
+
+    /**
+     * Returns the pack that contains the object, or null if it is not packed.
+     * If the object is neither in a listed pack nor loose, or its pack was deleted before it was opened,
+     * the packs are listed again, see {@link #reloadPacks()}.
+     * */
+    private PackFile findPack(ObjectId hashValue) {
+        PackFile pack = findListedPack(hashValue);
+        if (pack == null ? !getLooseFile(hashValue).isFile() : !pack.isReadable()) {
+            reloadPacks();
+            pack = findListedPack(hashValue);
+        }
+        return pack;
+    }
+
+    /** Returns the listed pack that contains the object, or null if there is none. */
+    private PackFile findListedPack(ObjectId hashValue) {
+        for (PackFile pack : getPacks()) {
+            if (pack.contains(hashValue)) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a stream of the object as a loose file stores it, packed or loose.
+     * An object stored as a delta is reconstructed and compressed again.
+     * Throws IOException if it doesn't exist.
+     * */
+    private InputStream openStored(ObjectId hashValue) throws IOException {
+        PackFile pack = findPack(hashValue);
+        if (pack == null) {
+            return Files.newInputStream(getLooseFile(hashValue).toPath());
+        }
+        InputStream in = pack.open(hashValue);
+        if (in == null) {
+            return new ByteArrayInputStream(ObjectCompression.deflate(pack.read(hashValue), compressionLevel));
+        }
+        return in;
+    }
+
+    /**
+     * Returns {@code true} if every object in this store is compressed, i.e., the store was created
+     * or migrated by a version that compresses objects, see {@link #markCompressed()}.
+     * Otherwise, stored bytes that look compressed might be content written uncompressed
+     * by an older version, so inflated content is only trusted if its hash value matches.
+     * */
+    private synchronized boolean isAllCompressed() {
+        if (allCompressed == null) {
+            allCompressed = join(objectsDir, COMPRESSED_MARKER).isFile();
+        }
+        return allCompressed;
+    }
+
+    /** Records that every object in this store is compressed. */
+    synchronized void markCompressed() throws IOException {
+        objectsDir.mkdirs();
+        join(objectsDir, COMPRESSED_MARKER).createNewFile();
+        allCompressed = true;
+    }
+
+    /** Returns the content of the object as stored in {@code stored}. */
+    private byte[] decode(ObjectId hashValue, byte[] stored) {
+        byte[] content = ObjectCompression.inflate(stored);
+        if (content != stored && !isAllCompressed() && !ObjectId.hash(content).equals(hashValue)) {
+            // written uncompressed by an older version
+            return stored;
+        }
+        return content;
+    }
+
+    /** Returns the content of the object. Throws IllegalArgumentException if it doesn't exist. */
+    byte[] read(ObjectId hashValue) {
+        byte[] stored = readStored(hashValue);
+        ChunkList chunks = isAllCompressed() ? ChunkList.decode(hashValue, stored) : null;
+        if (chunks == null) {
+            return stored;
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.min(chunks.getSize(), 1 << 30));
+        for (ObjectId chunk : chunks.getChunks()) {
+            content.writeBytes(read(chunk));
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Returns what is stored under the hash value, decompressed: either the content of the object
+     * or the chunk list of a chunked file. Throws IllegalArgumentException if it doesn't exist.
+     * */
+    private byte[] readStored(ObjectId hashValue) {
+        PackFile pack = findPack(hashValue);
+        if (pack == null) {
+            return decode(hashValue, readContents(getLooseFile(hashValue)));
+        }
+        return pack.isLegacy() ? decode(hashValue, pack.read(hashValue)) : pack.read(hashValue);
+    }
+
+    /**
+     * Returns the chunk list of a chunked file, or null if the object is stored whole.
+     * Only the beginning of a whole object is inflated to tell.
+     * */
+    private ChunkList readChunkList(ObjectId hashValue) throws IOException {
+        if (!isAllCompressed()) {
+            // chunk lists are only written into compressed stores
+            return null;
+        }
+        PackFile pack = findPack(hashValue);
+        InputStream in = pack == null ? Files.newInputStream(getLooseFile(hashValue).toPath()) : pack.open(hashValue);
+        if (in == null) {
+            // a delta
+            return ChunkList.decode(hashValue, pack.read(hashValue));
+        }
+        byte[] head;
+        try (InputStream content = new InflaterInputStream(in)) {
+            head = content.readNBytes(ChunkList.MAGIC.length);
+        }
+        if (!ChunkList.hasMagic(head, head.length)) {
+            return null;
+        }
+        return ChunkList.decode(hashValue, readStored(hashValue));
+    }
+
+    /**
+     * Writes the content of the object into {@code dest}, overwriting it if it exists.
+     * The content is inflated in chunks, never held in memory as a whole,
+     * and a chunked file is written one chunk at a time.
+     * Throws IllegalArgumentException if the object doesn't exist.
+     * */
+    void copyTo(ObjectId hashValue, File dest) {
+        try {
+            ChunkList chunks = readChunkList(hashValue);
+            if (chunks != null) {
+                try (OutputStream out = Files.newOutputStream(dest.toPath())) {
+                    for (ObjectId chunk : chunks.getChunks()) {
+                        out.write(read(chunk));
+                    }
+                }
+                return;
+            }
+            PackFile pack = findPack(hashValue);
+            if (pack != null && !pack.isLegacy()) {
+                try (OutputStream out = Files.newOutputStream(dest.toPath())) {
+                    pack.copyTo(hashValue, out);
+                }
+                return;
+            }
+            byte[] head = new byte[2];
+            int n;
+            try (InputStream in = openStored(hashValue)) {
+                n = in.readNBytes(head, 0, head.length);
+            }
+            if (ObjectCompression.hasZlibHeader(head, n)) {
+                MessageDigest md = ObjectId.newDigest();
+                boolean inflated;
+                try (InputStream in = openStored(hashValue);
+                     DigestOutputStream out = new DigestOutputStream(Files.newOutputStream(dest.toPath()), md)) {
+                    out.on(!isAllCompressed());
+                    inflated = ObjectCompression.inflate(in, out);
+                }
+                if (inflated && (isAllCompressed() || ObjectId.fromRaw(md.digest()).equals(hashValue))) {
+                    return;
+                }
+            }
+            // written uncompressed by an older version
+            try (InputStream in = openStored(hashValue)) {
+                Files.copy(in, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Copies the object to {@code target} if it doesn't exist there yet.
+     * The object is copied as stored, without inflating and deflating it again,
+     * unless this store may hold objects written uncompressed by an older version.
+     * The chunks of a chunked file are copied first, and the file is written whole
+     * into a target that may hold uncompressed objects, since older versions can't read chunks.
+     *
+     * @return {@code true} if the object was copied.
+     * */
+    boolean copyObjectTo(ObjectId hashValue, ObjectStore target) {
+        if (target.contains(hashValue)) {
+            return false;
+        }
+        if (!isAllCompressed()) {
+            target.write(hashValue, read(hashValue));
+            return true;
+        }
+        File tmpFile = null;
+        try {
+            ChunkList chunks = readChunkList(hashValue);
+            if (chunks != null && !target.isAllCompressed()) {
+                tmpFile = target.newTempFile();
+                copyTo(hashValue, tmpFile);
+                target.insert(tmpFile);
+                Files.delete(tmpFile.toPath());
+                return true;
+            }
+            if (chunks != null) {
+                for (ObjectId chunk : chunks.getChunks()) {
+                    copyObjectTo(chunk, target);
+                }
+            }
+        } catch (IOException excp) {
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (InputStream in = openStored(hashValue)) {
+            tmpFile = target.newTempFile();
+            Files.copy(in, tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            target.publish(tmpFile, hashValue);
+            return true;
+        } catch (IOException excp) {
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Compresses all objects written uncompressed by older versions, and marks the store as compressed.
+     * Packs are unpacked into compressed loose objects, which the next repack packs again.
+     *
+     * @return The number of objects that were rewritten.
+     * */
+    int compressAll() throws IOException {
+        if (isAllCompressed()) {
+            return 0;
+        }
+        int cnt = 0;
+        for (Map.Entry<ObjectId, File> e : getLooseObjects().entrySet()) {
+            byte[] stored = readContents(e.getValue());
+            byte[] content = decode(e.getKey(), stored);
+            if (content == stored) {
+                File tmpFile = newTempFile();
+                Files.write(tmpFile.toPath(), ObjectCompression.deflate(content, compressionLevel));
+                Files.move(tmpFile.toPath(), e.getValue().toPath(), StandardCopyOption.ATOMIC_MOVE);
+                cnt += 1;
+            }
+        }
+        List<PackFile> kept = new ArrayList<>();
+        for (PackFile pack : getPacks()) {
+            if (!pack.isLegacy()) {
+                // only ever written compressed
+                kept.add(pack);
+                continue;
+            }
+            for (ObjectId id : pack.getIDs()) {
+                if (!getLooseFile(id).isFile()) {
+                    File tmpFile = newTempFile();
+                    byte[] stored = pack.read(id);
+                    Files.write(tmpFile.toPath(), ObjectCompression.deflate(decode(id, stored), compressionLevel));
+                    File looseFile = getLooseFile(id);
+                    looseFile.getParentFile().mkdirs();
+                    Files.move(tmpFile.toPath(), looseFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    cnt += 1;
+                }
+            }
+            pack.delete();
+        }
+        packs = kept;
+        markCompressed();
+        return cnt;
+    }
+
+    /** Returns a new temporary file in the objects directory, so it can be renamed into place. */
+    private File newTempFile() throws IOException {
+        objectsDir.mkdirs();
+        // unlike Files.createTempFile, keeps the default permissions, so objects stay readable by others
+        return File.createTempFile(TEMP_PREFIX, null, objectsDir);
+    }
+
+    /**
+     * Renames a complete temporary file to the loose object file of {@code hashValue},
+     * or deletes it if the object already exists.
+     * The rename is atomic, so a loose object file is either missing or complete.
+     * */
+    private void publish(File tmpFile, ObjectId hashValue) throws IOException {
+        if (contains(hashValue)) {
+            Files.delete(tmpFile.toPath());
+            return;
+        }
+        File looseFile = getLooseFile(hashValue);
+        looseFile.getParentFile().mkdirs();
+        Files.move(tmpFile.toPath(), looseFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Writes the content as a loose object if the object doesn't exist yet. */
+    void write(ObjectId hashValue, byte[] content) {
+        if (contains(hashValue)) {
+            return;
+        }
+        File tmpFile = null;
+        try {
+            tmpFile = newTempFile();
+            Files.write(tmpFile.toPath(), ObjectCompression.deflate(content, compressionLevel));
+            publish(tmpFile, hashValue);
+        } catch (IOException excp) {
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Stores the content of a file as a loose object and returns its hash value.
+     * The file is read once, in chunks: each chunk is hashed and compressed into a temporary file,
+     * which is then published under the hash value, see {@link #publish(File, ObjectId)}.
+     * A file of at least {@code chunkThreshold} bytes is split by {@link Chunker} instead,
+     * each chunk stored as a blob, and its chunk list stored under its hash value;
+     * a file that is a single chunk is thus stored as an ordinary blob.
+     * */
+    ObjectId insert(File src) {
+        if (src.length() >= chunkThreshold && isAllCompressed()) {
+            return insertChunked(src);
+        }
+        File tmpFile = null;
+        try {
+            tmpFile = newTempFile();
+            MessageDigest md = ObjectId.newDigest();
+            try (InputStream in = Files.newInputStream(src.toPath());
+                 OutputStream out = ObjectCompression.deflating(Files.newOutputStream(tmpFile.toPath()),
+                         compressionLevel)) {
+                byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    md.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                }
+            }
+            ObjectId hashValue = ObjectId.fromRaw(md.digest());
+            publish(tmpFile, hashValue);
+            return hashValue;
+        } catch (IOException excp) {
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private ObjectId insertChunked(File src) {
+        MessageDigest md = ObjectId.newDigest();
+        ChunkList chunks = new ChunkList();
+        try (InputStream in = Files.newInputStream(src.toPath())) {
+            Chunker chunker = new Chunker(in);
+            for (byte[] chunk = chunker.next(); chunk != null; chunk = chunker.next()) {
+                md.update(chunk);
+                ObjectId chunkID = ObjectId.hash(chunk);
+                write(chunkID, chunk);
+                chunks.add(chunkID, chunk.length);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ObjectId hashValue = ObjectId.fromRaw(md.digest());
+        write(hashValue, chunks.encode());
+        return hashValue;
+    }
+
+    /**
+     * Stores the contents of files as loose objects on at most {@code parallelism} threads.
+     * Objects that already exist are skipped.
+     * Throws GitletException if a file no longer has the expected hash value.
+     *
+     * @param files Map from object ID to the file holding its content.
+     * */
+    void writeFiles(Map<ObjectId, File> files, int parallelism) {
+        List<Map.Entry<ObjectId, File>> missing = new ArrayList<>();
+        for (Map.Entry<ObjectId, File> e : files.entrySet()) {
+            if (!contains(e.getKey())) {
+                missing.add(e);
+            }
+        }
+        Consumer<Map.Entry<ObjectId, File>> store = e -> {
+            if (!insert(e.getValue()).equals(e.getKey())) {
+                throw error("File %s changed while it was added.", e.getValue());
+            }
+        };
+        if (missing.size() <= 1 || parallelism <= 1) {
+            missing.forEach(store);
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> missing.parallelStream().forEach(store)).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the IDs of all objects, loose or packed, that start with {@code prefix}.
+     * Packed objects are found by a binary search in the pack indexes.
+     * Only objects written since the last repack need a directory listing.
+     * */
+    List<ObjectId> findByPrefix(String prefix) {
+        List<ObjectId> found = new ArrayList<>();
+        if (prefix.length() < 2 || prefix.length() > ObjectId.HEX_LENGTH || !prefix.matches("[0-9a-f]+")) {
+            return found;
+        }
+        for (PackFile pack : getPacks()) {
+            found.addAll(pack.findByPrefix(prefix));
+        }
+        List<String> names = plainFilenamesIn(join(objectsDir, prefix.substring(0, 2)));
+        if (names != null) {
+            String target = prefix.substring(2);
+            for (String name : names) {
+                if (name.startsWith(target)) {
+                    ObjectId id = ObjectId.fromString(prefix.substring(0, 2) + name);
+                    if (!found.contains(id)) {
+                        found.add(id);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /** Returns all loose objects, a map from object ID to file. */
+    private SortedMap<ObjectId, File> getLooseObjects() {
+        SortedMap<ObjectId, File> loose = new TreeMap<>();
+        File[] folders = objectsDir.listFiles();
+        if (folders == null) {
+            return loose;
+        }
+        for (File folder : folders) {
+            if (folder.getName().length() != 2 || !folder.isDirectory()) {
+                continue;
+            }
+            List<String> names = plainFilenamesIn(folder);
+            assert names != null;
+            for (String name : names) {
+                loose.put(ObjectId.fromString(folder.getName() + name), join(folder, name));
+            }
+        }
+        return loose;
+    }
+
+    /**
+     * Packs all objects into a single new pack, replacing all loose objects and old packs.
+     * The versions of a file are listed in {@code histories}, newest first.
+     * The newest version is stored in full, and each older one as a delta against the version after it,
+     * if that delta is less than half the size of the version; every {@code maxDepth + 1}-th version
+     * is stored in full again, so reading a version applies at most {@code maxDepth} deltas.
+     * Objects larger than {@code maxDeltaBytes} are always stored in full.
+     * If there are no new loose objects, the packs are left as they are.
+     *
+     * @param histories Lists of blob IDs, each the versions of one file, newest first.
+     * @return The number of loose objects that were packed.
+     * */
+    int repack(Collection<List<ObjectId>> histories, int maxDepth, long maxDeltaBytes) throws IOException {
+        SortedMap<ObjectId, File> loose = getLooseObjects();
+        int cnt = 0;
+        for (ObjectId id : loose.keySet()) {
+            if (findPack(id) == null) {
+                cnt += 1;
+            }
+        }
+
+        if (cnt > 0) {
+            SortedMap<ObjectId, PackFile.Entry> entries = new TreeMap<>();
+            for (PackFile pack : getPacks()) {
+                for (ObjectId id : pack.getIDs()) {
+                    entries.putIfAbsent(id, fullEntry(id));
+                }
+            }
+            for (ObjectId id : loose.keySet()) {
+                entries.putIfAbsent(id, fullEntry(id));
+            }
+            if (isAllCompressed()) {
+                for (List<ObjectId> history : histories) {
+                    addDeltas(history, entries, maxDepth, maxDeltaBytes);
+                }
+            }
+            PackFile newPack = PackFile.write(packDir, entries, compressionLevel);
+            for (PackFile pack : getPacks()) {
+                pack.delete();
+            }
+            packs = new ArrayList<>(List.of(newPack));
+        }
+
+        // the pack is complete, drop the loose copies
+        for (File f : loose.values()) {
+            f.delete();
+            f.getParentFile().delete();  // only succeeds when the folder is empty
+        }
+        return cnt;
+    }
+
+    /** Returns a pack entry holding the whole object. */
+    private PackFile.Entry fullEntry(ObjectId hashValue) {
+        if (isAllCompressed()) {
+            return PackFile.Entry.full(() -> openStored(hashValue));
+        }
+        return PackFile.Entry.full(() -> new ByteArrayInputStream(
+                ObjectCompression.deflate(read(hashValue), compressionLevel)));
+    }
+
+    /** Replaces the entries of the versions of one file, newest first, by deltas where they pay off. */
+    private void addDeltas(List<ObjectId> history, Map<ObjectId, PackFile.Entry> entries,
+                           int maxDepth, long maxDeltaBytes) throws IOException {
+        ObjectId baseID = null;
+        byte[] base = null;
+        int baseDepth = 0;
+        for (ObjectId id : history) {
+            if (!entries.containsKey(id)) {
+                continue;
+            }
+            byte[] content = readAtMost(id, maxDeltaBytes);
+            int depth = 0;
+            if (content != null && base != null && baseDepth < maxDepth) {
+                byte[] delta = Delta.encode(base, content);
+                if (delta.length < content.length / 2) {
+                    entries.put(id, PackFile.Entry.delta(baseID, delta));
+                    depth = baseDepth + 1;
+                }
+            }
+            baseID = id;
+            base = content;
+            baseDepth = depth;
+        }
+    }
+
+    /** Returns the content of an object in a compressed store, or null if it is larger than {@code maxBytes}. */
+    private byte[] readAtMost(ObjectId hashValue, long maxBytes) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                if (count + (long) len > maxBytes) {
+                    throw new IllegalStateException();
+                }
+                super.write(b, off, len);
+            }
+        };
+        PackFile pack = findPack(hashValue);
+        try (InputStream in = pack == null
+                ? Files.newInputStream(getLooseFile(hashValue).toPath()) : pack.open(hashValue)) {
+            if (in == null) {
+                // a delta
+                byte[] packed = pack.read(hashValue);
+                return packed.length > maxBytes ? null : packed;
+            }
+            if (!ObjectCompression.inflate(in, content)) {
+                throw error("Corrupted object %s.", hashValue);
+            }
+        } catch (IllegalStateException excp) {
+            // too large
+            return null;
+        }
+        return content.toByteArray();
+    }
+}
@@ -0,0 +1,400 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents a gitlet pack, i.e., many objects stored in one file.
+ * A pack consists of two files in .gitlet/objects/pack:
+ * <ul>
+ * <li>pack-[hash].pack, the data file. A header followed by
+ * the entries of all objects, one after another.</li>
+ * <li>pack-[hash].idx, the index file, see {@link PackIndex}.</li>
+ * </ul>
+ * The index file is written last, so a pack without an index is ignored.
+ * <p>
+ * An entry is a type byte followed by either the content as a zlib stream ({@link #FULL}),
+ * or the raw ID of a base object in the same pack and the zlib-compressed {@link Delta}
+ * that turns the base into the content ({@link #DELTA}).
+ * A delta may have another delta as its base, and reconstructed bases are cached,
+ * so reading the versions of a file one after another applies each delta once.
+ * Packs of version 1 hold each object exactly as its loose file did, without a type byte.
+ *
+ * @author Zichuan Wang
+ */
+public class PackFile {
+
+    /** Suffix of the data file. */
+    static final String PACK_SUFFIX = ".pack";
+    /** Suffix of the index file. */
+    static final String INDEX_SUFFIX = ".idx";
+
+    /** Magic number at the beginning of the data file. */
+    private static final int PACK_MAGIC = 0x4750414b;  // "GPAK"
+    private static final int VERSION = 2;
+    /** Version whose entries are loose object files, as written by older versions of gitlet. */
+    private static final int LEGACY_VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    /** Type of an entry holding the whole content. */
+    private static final byte FULL = 0;
+    /** Type of an entry holding a delta against a base object. */
+    private static final byte DELTA = 1;
+    /** Maximum total size of the cached delta bases in bytes. */
+    private static final long BASE_CACHE_BYTES = 16L << 20;
+
+    /** The data file. */
+    private final File packFile;
+    /** The index of the data file. */
+    private final PackIndex index;
+    /** The opened data file, shared by all reads. */
+    private FileChannel channel;
+    /** Version from the header of the data file, read when the file is opened. */
+    private int version;
+    /** Contents of recently reconstructed delta bases. */
+    private final ObjectCache baseCache = new ObjectCache(BASE_CACHE_BYTES);
+
+    private PackFile(File packFile, PackIndex index) {
+        this.packFile = packFile;
+        this.index = index;
+    }
+
+    /** Reads the pack whose index file is {@code indexFile}. */
+    static PackFile load(File indexFile) {
+        return new PackFile(getPackFileOf(indexFile), PackIndex.load(indexFile));
+    }
+
+    /** Opens a stream, so an entry is only read while the pack is written. */
+    interface StreamSource {
+        InputStream open() throws IOException;
+    }
+
+    /** An object to be written into a pack, either in full or as a delta. */
+    static class Entry {
+        /** The content as a zlib stream, null for a delta. */
+        private final StreamSource compressed;
+        /** ID of the base object, null for a full entry. */
+        private final ObjectId base;
+        /** Delta from the base to the content, null for a full entry. */
+        private final byte[] delta;
+
+        private Entry(StreamSource compressed, ObjectId base, byte[] delta) {
+            this.compressed = compressed;
+            this.base = base;
+            this.delta = delta;
+        }
+
+        /** Returns an entry holding the whole content, read from {@code compressed} as a zlib stream. */
+        static Entry full(StreamSource compressed) {
+            return new Entry(compressed, null, null);
+        }
+
+        /** Returns an entry holding a delta against {@code base}, which must be in the same pack. */
+        static Entry delta(ObjectId base, byte[] delta) {
+            return new Entry(null, base, delta);
+        }
+    }
+
+    /**
+     * Writes the objects in {@code objects} as a new pack in {@code packDir}
+     * and returns it.
+     *
+     * @param packDir The directory to store packs.
+     * @param objects Map from object ID to its entry.
+     * @param compressionLevel Compression level of deltas.
+     * */
+    static PackFile write(File packDir, SortedMap<ObjectId, Entry> objects, int compressionLevel)
+            throws IOException {
+        packDir.mkdirs();
+        MessageDigest md = ObjectId.newDigest();
+        for (ObjectId id : objects.keySet()) {
+            md.update(id.toRaw());
+        }
+        String name = "pack-" + ObjectId.fromRaw(md.digest()).name();
+        File packFile = join(packDir, name + PACK_SUFFIX);
+        File indexFile = join(packDir, name + INDEX_SUFFIX);
+
+        int count = objects.size();
+        ObjectId[] ids = objects.keySet().toArray(new ObjectId[0]);
+        long[] offsets = new long[count];
+        long[] lengths = new long[count];
+
+        // data file
+        // a file of its own, so concurrent writers never write into the same file
+        File tmpPack = File.createTempFile(name + PACK_SUFFIX, null, packDir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpPack.toPath())))) {
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                // out.size() stops counting at 2 GiB
+                long offset = HEADER_SIZE;
+                for (int i = 0; i < count; i += 1) {
+                    Entry entry = objects.get(ids[i]);
+                    offsets[i] = offset;
+                    if (entry.base == null) {
+                        out.writeByte(FULL);
+                        try (InputStream in = entry.compressed.open()) {
+                            lengths[i] = 1 + in.transferTo(out);
+                        }
+                    } else {
+                        byte[] delta = ObjectCompression.deflate(entry.delta, compressionLevel);
+                        out.writeByte(DELTA);
+                        out.write(entry.base.toRaw());
+                        out.write(delta);
+                        lengths[i] = 1 + ObjectId.RAW_LENGTH + delta.length;
+                    }
+                    offset += lengths[i];
+                }
+            }
+            Files.move(tmpPack.toPath(), packFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            tmpPack.delete();
+            throw excp;
+        }
+
+        // index file, written last
+        PackIndex.write(indexFile, ids, offsets, lengths);
+
+        return load(indexFile);
+    }
+
+    /** Returns the data file that belongs to {@code indexFile}. */
+    private static File getPackFileOf(File indexFile) {
+        String name = indexFile.getName();
+        name = name.substring(0, name.length() - INDEX_SUFFIX.length());
+        return join(indexFile.getParentFile(), name + PACK_SUFFIX);
+    }
+
+    /** Returns {@code true} if the pack contains the object. */
+    boolean contains(ObjectId id) {
+        return index.indexOf(id) >= 0;
+    }
+
+    /** Returns the IDs of all objects in this pack, sorted. */
+    List<ObjectId> getIDs() {
+        List<ObjectId> ids = new ArrayList<>();
+        for (int i = 0; i < index.size(); i += 1) {
+            ids.add(index.getID(i));
+        }
+        return ids;
+    }
+
+    /** Deletes the pack, the index file first so that a half-deleted pack is ignored. */
+    synchronized void delete() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        Files.deleteIfExists(getIndexFileOf(packFile).toPath());
+        Files.deleteIfExists(packFile.toPath());
+    }
+
+    /** Returns the index file of this pack. */
+    File getIndexFile() {
+        return getIndexFileOf(packFile);
+    }
+
+    /**
+     * Returns {@code true} if the pack can be read: it was opened already,
+     * which keeps it readable even if another process deletes it, or its data file exists.
+     * */
+    synchronized boolean isReadable() {
+        return channel != null || packFile.isFile();
+    }
+
+    /** Returns the index file that belongs to {@code packFile}. */
+    private static File getIndexFileOf(File packFile) {
+        String name = packFile.getName();
+        name = name.substring(0, name.length() - PACK_SUFFIX.length());
+        return join(packFile.getParentFile(), name + INDEX_SUFFIX);
+    }
+
+    /** Returns all object IDs in this pack that start with {@code prefix}. */
+    List<ObjectId> findByPrefix(String prefix) {
+        return index.findByPrefix(prefix);
+    }
+
+    /** Opens the pack on first use. Reads are positional, so threads can share the channel. */
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            version = header.getInt(4);
+            if (header.getInt(0) != PACK_MAGIC || (version != VERSION && version != LEGACY_VERSION)) {
+                channel.close();
+                channel = null;
+                throw error("Corrupted pack %s.", packFile);
+            }
+        }
+        return channel;
+    }
+
+    private void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw error("Corrupted pack %s.", packFile);
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if the pack was written by an older version,
+     * i.e., it holds each object as stored in a loose file, which may be uncompressed.
+     * */
+    synchronized boolean isLegacy() {
+        try {
+            getChannel();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return version == LEGACY_VERSION;
+    }
+
+    /** Returns {@code length} bytes of the data file from {@code position}. */
+    private byte[] readRegion(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(getChannel(), buffer, position);
+        return buffer.array();
+    }
+
+    /** Returns the type of the i-th entry of a pack of the current version. */
+    private byte getType(int i) throws IOException {
+        byte type = readRegion(index.getOffset(i), 1)[0];
+        if (type != FULL && type != DELTA) {
+            throw error("Corrupted pack %s.", packFile);
+        }
+        return type;
+    }
+
+    /**
+     * Returns a stream of the object as a loose file would store it,
+     * or null if it is not in this pack or stored as a delta.
+     * The stream reads the pack in chunks, never the whole object at once.
+     * */
+    InputStream open(ObjectId id) throws IOException {
+        int i = index.indexOf(id);
+        if (i < 0) {
+            return null;
+        }
+        if (isLegacy()) {
+            return new RegionInputStream(getChannel(), index.getOffset(i), index.getLength(i));
+        }
+        if (getType(i) == DELTA) {
+            return null;
+        }
+        return new RegionInputStream(getChannel(), index.getOffset(i) + 1, index.getLength(i) - 1);
+    }
+
+    /**
+     * Returns the object, or null if it is not in this pack.
+     * Objects of a legacy pack are returned as stored, objects of other packs are decompressed
+     * and, if stored as a delta, reconstructed from their base.
+     * */
+    byte[] read(ObjectId id) {
+        int i = index.indexOf(id);
+        if (i < 0) {
+            return null;
+        }
+        try {
+            if (isLegacy()) {
+                return readRegion(index.getOffset(i), (int) index.getLength(i));
+            }
+            if (getType(i) == FULL) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                copyTo(id, content);
+                return content.toByteArray();
+            }
+            byte[] entry = readRegion(index.getOffset(i) + 1, (int) index.getLength(i) - 1);
+            ObjectId baseID = ObjectId.fromRaw(Arrays.copyOf(entry, ObjectId.RAW_LENGTH));
+            byte[] delta = ObjectCompression.inflate(
+                    Arrays.copyOfRange(entry, ObjectId.RAW_LENGTH, entry.length));
+            return Delta.apply(readBase(baseID), delta);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the content of a delta base, from the cache if it was read recently. */
+    private byte[] readBase(ObjectId baseID) {
+        synchronized (baseCache) {
+            byte[] base = (byte[]) baseCache.get(baseID);
+            if (base != null) {
+                return base;
+            }
+        }
+        byte[] base = read(baseID);
+        if (base == null) {
+            throw error("Corrupted pack %s.", packFile);
+        }
+        synchronized (baseCache) {
+            baseCache.put(baseID, base, base.length);
+        }
+        return base;
+    }
+
+    /**
+     * Writes the content of an object of a pack of the current version into {@code out}.
+     * Full entries are inflated in chunks, never held in memory as a whole.
+     * */
+    void copyTo(ObjectId id, OutputStream out) throws IOException {
+        try (InputStream in = open(id)) {
+            if (in == null) {
+                out.write(read(id));
+            } else if (!ObjectCompression.inflate(in, out)) {
+                throw error("Corrupted pack %s.", packFile);
+            }
+        }
+    }
+
+    /** Reads part of a shared channel with positional reads, so several streams can be open at once. */
+    private static class RegionInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RegionInputStream(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n < 0) {
+                throw new IOException("unexpected end of pack");
+            }
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the memory-mapped index file of a pack.
+ * The index file is laid out as
+ * <ul>
+ * <li>header: magic number, version, number of objects N</li>
+ * <li>fanout table: 256 ints, entry i is the number of objects
+ * whose first byte of ID is at most i</li>
+ * <li>N raw 20-byte object IDs, sorted</li>
+ * <li>N longs, offset of each object in the data file</li>
+ * <li>N longs, length of each object</li>
+ * </ul>
+ * The fanout table narrows a lookup to the IDs sharing the first byte,
+ * followed by a binary search on the mapped IDs,
+ * so neither lookups nor prefix resolution read the disk.
+ *
+ * @author Zichuan Wang
+ */
+public class PackIndex {
+
+    /** Magic number at the beginning of the index file. */
+    private static final int MAGIC = 0x47494458;  // "GIDX"
+    private static final int VERSION = 1;
+    /** Length of a raw SHA-1 hash value in bytes. */
+    private static final int RAW_ID_LENGTH = ObjectId.RAW_LENGTH;
+    private static final int FANOUT_SIZE = 256;
+    private static final int HEADER_SIZE = 12;
+    private static final int IDS_START = HEADER_SIZE + 4 * FANOUT_SIZE;
+
+    /** The mapped index file. */
+    private final MappedByteBuffer buffer;
+    /** Number of objects. */
+    private final int count;
+    /** Start of the offset table. */
+    private final int offsetsStart;
+    /** Start of the length table. */
+    private final int lengthsStart;
+
+    private PackIndex(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.count = buffer.getInt(8);
+        this.offsetsStart = IDS_START + count * RAW_ID_LENGTH;
+        this.lengthsStart = offsetsStart + count * 8;
+    }
+
+    /** Maps the index file into memory. */
+    static PackIndex load(File indexFile) {
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw error("Corrupted pack index %s.", indexFile);
+            }
+            return new PackIndex(buffer);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Writes an index file.
+     *
+     * @param indexFile The index file.
+     * @param ids Sorted object IDs.
+     * @param offsets Offset of each object in the data file.
+     * @param lengths Length of each object.
+     * */
+    static void write(File indexFile, ObjectId[] ids, long[] offsets, long[] lengths) throws IOException {
+        int[] fanout = new int[FANOUT_SIZE];
+        for (ObjectId id : ids) {
+            fanout[id.getFirstByte()] += 1;
+        }
+        for (int i = 1; i < FANOUT_SIZE; i += 1) {
+            fanout[i] += fanout[i - 1];
+        }
+
+        // a file of its own, so concurrent writers never write into the same file
+        File tmpIndex = File.createTempFile(indexFile.getName(), null, indexFile.getParentFile());
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpIndex.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(ids.length);
+                for (int n : fanout) {
+                    out.writeInt(n);
+                }
+                for (ObjectId id : ids) {
+                    out.write(id.toRaw());
+                }
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+                for (long length : lengths) {
+                    out.writeLong(length);
+                }
+            }
+            Files.move(tmpIndex.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            tmpIndex.delete();
+            throw excp;
+        }
+    }
+
+    /** Returns the number of objects. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the offset of the i-th object in the data file. */
+    long getOffset(int i) {
+        return buffer.getLong(offsetsStart + 8 * i);
+    }
+
+    /** Returns the length of the i-th object. */
+    long getLength(int i) {
+        return buffer.getLong(lengthsStart + 8 * i);
+    }
+
+    /** Returns the ID of the i-th object. */
+    ObjectId getID(int i) {
+        return ObjectId.fromBuffer(buffer, IDS_START + i * RAW_ID_LENGTH);
+    }
+
+    /** Returns the number of objects whose first byte of ID is less than {@code firstByte}. */
+    private int fanoutBefore(int firstByte) {
+        return firstByte == 0 ? 0 : buffer.getInt(HEADER_SIZE + 4 * (firstByte - 1));
+    }
+
+    /**
+     * Compares the first {@code nibbles.length} hex digits of the i-th ID with {@code nibbles}.
+     * Returns a negative integer, zero, or a positive integer as the ID is
+     * less than, equal to, or greater than {@code nibbles}.
+     * */
+    private int compare(int i, byte[] nibbles) {
+        int start = IDS_START + i * RAW_ID_LENGTH;
+        for (int k = 0; k < nibbles.length; k += 1) {
+            int b = buffer.get(start + k / 2) & 0xff;
+            int nibble = k % 2 == 0 ? b >>> 4 : b & 0xf;
+            if (nibble != nibbles[k]) {
+                return nibble - nibbles[k];
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the hex digits of {@code hex} as numbers. */
+    private static byte[] toNibbles(String hex) {
+        byte[] nibbles = new byte[hex.length()];
+        for (int k = 0; k < nibbles.length; k += 1) {
+            nibbles[k] = (byte) Character.digit(hex.charAt(k), 16);
+        }
+        return nibbles;
+    }
+
+    /**
+     * Returns the position of the first ID that is not less than {@code nibbles},
+     * comparing only the first {@code nibbles.length} hex digits.
+     * */
+    private int lowerBound(byte[] nibbles) {
+        int firstByte = nibbles[0] << 4 | (nibbles.length > 1 ? nibbles[1] : 0);
+        int lo = fanoutBefore(firstByte);
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, nibbles) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the position of the object, or -1 if it is not in this pack. */
+    int indexOf(ObjectId id) {
+        int firstByte = id.getFirstByte();
+        int lo = fanoutBefore(firstByte);
+        int hi = fanoutBefore(firstByte + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = id.compareTo(buffer, IDS_START + mid * RAW_ID_LENGTH);
+            if (c > 0) {
+                lo = mid + 1;
+            } else if (c < 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns all object IDs in this pack that start with {@code prefix}. */
+    List<ObjectId> findByPrefix(String prefix) {
+        byte[] nibbles = toNibbles(prefix);
+        List<ObjectId> found = new ArrayList<>();
+        for (int i = lowerBound(nibbles); i < count && compare(i, nibbles) == 0; i += 1) {
+            found.add(getID(i));
+        }
+        return found;
+    }
+}
@@ -0,0 +1,93 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+
+import static gitlet.Utils.*;
+
+/**
+ * Updates refs, i.e., .gitlet/HEAD and the files in .gitlet/refs, so that concurrent processes never lose an update.
+ * As in git, a ref is locked by creating REF.lock exclusively, which fails if another process holds the lock.
+ * The ref is checked to still hold the value the command read from it (compare-and-swap),
+ * and the new value is written into the lock file, which is then renamed over the ref atomically,
+ * so readers see either the old or the new value.
+ * Each ref is locked on its own, so updates of different refs, e.g., pushes to different branches,
+ * never wait for each other. Contention fails at once with a {@link ConcurrentUpdateException}.
+ * A lock file left by a process that was killed has to be removed by hand.
+ *
+ * @author Zichuan Wang
+ */
+class RefLock {
+
+    static final String LOCK_SUFFIX = ".lock";
+
+    private RefLock() {
+    }
+
+    /** Returns {@code true} if the file name is the name of a lock file rather than a ref. */
+    static boolean isLockFile(String filename) {
+        return filename.endsWith(LOCK_SUFFIX);
+    }
+
+    /**
+     * Sets the ref to {@code value} if it holds {@code expected}.
+     *
+     * @param expected The value the ref must hold, null if it must not exist.
+     * */
+    static void compareAndSet(File ref, String expected, String value) {
+        update(ref, true, expected, value);
+    }
+
+    /** Sets the ref to {@code value}, whatever it holds. */
+    static void set(File ref, String value) {
+        update(ref, false, null, value);
+    }
+
+    /** Deletes the ref. */
+    static void delete(File ref) {
+        update(ref, false, null, null);
+    }
+
+    /**
+     * Updates the ref while holding its lock.
+     *
+     * @param check Whether the ref must hold {@code expected}.
+     * @param value The new value, null if the ref is deleted.
+     * */
+    private static void update(File ref, boolean check, String expected, String value) {
+        File lockFile = new File(ref.getPath() + LOCK_SUFFIX);
+        ref.getParentFile().mkdirs();
+        try {
+            Files.createFile(lockFile.toPath());
+        } catch (FileAlreadyExistsException excp) {
+            throw new ConcurrentUpdateException("Unable to lock %s: it is being updated by another process; "
+                    + "try again.", ref);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        boolean published = false;
+        try {
+            if (check && !Objects.equals(ref.isFile() ? readContentsAsString(ref) : null, expected)) {
+                throw new ConcurrentUpdateException("%s was changed by another process; try again.", ref);
+            }
+            if (value == null) {
+                Files.deleteIfExists(ref.toPath());
+            } else {
+                writeContents(lockFile, value);
+                Files.move(lockFile.toPath(), ref.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                published = true;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            // once renamed, the lock file may already be another process's lock
+            if (!published) {
+                lockFile.delete();
+            }
+        }
+    }
+}
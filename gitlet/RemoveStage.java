@@ -1,8 +1,8 @@
 package gitlet;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Path;
 import java.util.*;
 
 
@@ -22,6 +22,9 @@ import java.util.*;
  *  @author Zichuan
  */
 public class RemoveStage implements Serializable, StageBasic, Dumpable {
+
+    /** Kept so that the index written by older versions can still be read. */
+    private static final long serialVersionUID = -306710141252748075L;
     /** The remove staging object. */
     private final Set<File> stage;
 
@@ -66,9 +69,14 @@ public class RemoveStage implements Serializable, StageBasic, Dumpable {
         return stage.isEmpty();
     }
 
+    /** Prints the files staged for removal relative to {@code base}, a path relative to the working directory. */
+    public void printRelativeTo(Path base) {
+        printWithHead("=== Removed Files ===", stage, base);
+    }
+
     @Override
-    public void dump() throws IOException {
-        printWithHead("=== Removed Files ===", stage);
+    public void dump() {
+        printRelativeTo(Path.of(""));
     }
 
 }
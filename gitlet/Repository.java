@@ -2,9 +2,18 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
+import java.util.regex.Pattern;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 import static gitlet.Utils.*;
 import static gitlet.Utils.readContentsAsString;
@@ -14,57 +23,152 @@ import static gitlet.Utils.readContentsAsString;
  * Represents a gitlet repository.
  * Supports init, add, commit, rm, log, global-log, find,
  * status, checkout, branch, rm-branch, reset, merge.
- * Also, supports sub-directory and can find the WORK_DIR recursively.
+ * Also, supports sub-directory and can find the workDir recursively.
+ * A repository is opened on a directory by {@link #open(File)}, and holds no state shared with other
+ * repositories, so one process can work on many of them. Failures are reported by GitletException.
+ * <p>
+ * Commands may be called from many threads. Commands that only read the repository (log, global-log,
+ * find, status) hold the read lock of {@link #lock} and run concurrently, the others hold its write lock.
+ * Objects are immutable and shared through the object cache and packs, so readers only synchronize
+ * on the bookkeeping that reading does: the stat data in the staging area and the derived indexes.
  * @author Zichuan Wang
  */
 public class Repository {
 
-    /** The current directory. */
-    public static final File CWD = new File(System.getProperty("user.dir"));
-    /** The current working directory. */
-    public static final File WORK_DIR = getWorkRootDir();
+    /** Message of commands run outside a repository. */
+    static final String NOT_A_REPOSITORY = "not a gitlet repository (or any of the parent directories): .gitlet";
+    /** Default size in bytes from which files are stored as chunks, see setting chunkThreshold. */
+    private static final long DEFAULT_CHUNK_THRESHOLD = 8L << 20;
+    /** Default size of the object cache in bytes, see setting cacheBytes. */
+    private static final long DEFAULT_CACHE_BYTES = 32L << 20;
+    /** Default maximum number of deltas applied to read a packed object, see setting deltaDepth. */
+    private static final long DEFAULT_DELTA_DEPTH = 10;
+    /** Default size in bytes above which objects are never stored as deltas, see setting deltaMaxBytes. */
+    private static final long DEFAULT_DELTA_MAX_BYTES = 32L << 20;
+
+    /** Held for reading by commands that don't change the repository, and for writing by the others. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** The directory that relative paths given to commands are relative to. */
+    private final File cwd;
+    /** The working directory. */
+    private final File workDir;
     /** The .gitlet directory. */
-    public static final File GITLET_DIR = join(WORK_DIR, ".gitlet");
+    private final File gitletDir;
     /** The .gitlet/objects directory. */
-    public static final File GITLET_OBJECTS_DIR = join(GITLET_DIR, "objects");
-    /** The .gitlet/refs directory. */
-    public static final File GITLET_REFS_DIR = join(GITLET_DIR, "refs");
+    private final File objectsDir;
     /** The .gitlet/refs/heads directory. */
-    public static final File GITLET_HEADS_DIR = join(GITLET_REFS_DIR, "heads");
+    private final File headsDir;
     /** The .gitlet/refs/remotes directory. */
-    public static final File GITLET_REMOTES_DIR = join(GITLET_REFS_DIR, "remotes");
+    private final File remotesDir;
     /** The .gitlet/refs/paths file. */
-    public static final File GITLET_REMOTE_PATHS_DIR = join(GITLET_REFS_DIR, "paths");
-
+    private final File remotePathsDir;
     /** The .gitlet/index file. */
-    public static final File GITLET_INDEX_FILE = join(GITLET_DIR, "index");
+    private final File indexFile;
     /** The .gitlet/HEAD file. */
-    public static final File GITLET_HEAD_FILE = join(GITLET_DIR, "HEAD");
+    private final File headFile;
+
+    /** Settings of the repository, in .gitlet/config. */
+    private final Config config;
+    /** Blobs, trees, and commits in .gitlet/objects, loose or packed, see settings compression and chunkThreshold. */
+    private final ObjectStore objectStore;
+    /** Parents and generation numbers of commits, in .gitlet/commit-graph. */
+    private final CommitGraph commitGraph;
+    /** Commit messages by trigram, in .gitlet/message-index. */
+    private final MessageIndex messageIndex;
+    /** The staging area, see {@link #readStageObject()}. */
+    private Stage index;
+    /** Whether stat data in the staging area changed since it was read or written. */
+    private boolean indexStatsChanged = false;
+    /** Modification time and size of the index file when it was last read or written by this object. */
+    private FileTime indexModified;
+    private long indexSize;
+    /** Number of working files whose recorded hash value was trusted, and that were hashed. */
+    private long statHits = 0;
+    private long statMisses = 0;
+    /** cwd relative to workDir, see {@link #getFileRelativeToCWD(File)}. */
+    private volatile Path cwdFromWorkDir;
+    /** Maximum number of threads working on the working directory, see setting parallelism. */
+    private final int parallelism;
+    /** Hashes files in the working directory. */
+    private final WorkTreeHasher workTreeHasher;
+    /** Lists files in the working directory. */
+    private final WorkTreeWalker workTreeWalker;
+    /** Writes blobs into files in the working directory. */
+    private final WorkTreeWriter workTreeWriter;
+    /** Commits and trees read through this repository, see setting cacheBytes. */
+    private final ObjectCache objectCache;
+
+    private Repository(File workDir, File cwd) {
+        this.cwd = cwd;
+        this.workDir = workDir;
+        gitletDir = join(workDir, ".gitlet");
+        objectsDir = join(gitletDir, "objects");
+        File refsDir = join(gitletDir, "refs");
+        headsDir = join(refsDir, "heads");
+        remotesDir = join(refsDir, "remotes");
+        remotePathsDir = join(refsDir, "paths");
+        indexFile = join(gitletDir, "index");
+        headFile = join(gitletDir, "HEAD");
+        config = new Config(join(gitletDir, "config"));
+        objectStore = openObjectStore(gitletDir, config);
+        commitGraph = new CommitGraph(this, join(gitletDir, "commit-graph"));
+        messageIndex = new MessageIndex(this, join(gitletDir, "message-index"));
+        parallelism = (int) config.getLong("parallelism", Runtime.getRuntime().availableProcessors());
+        workTreeHasher = new WorkTreeHasher(workDir, parallelism);
+        workTreeWalker = new WorkTreeWalker(workDir, parallelism);
+        workTreeWriter = new WorkTreeWriter(workDir, objectStore, parallelism);
+        objectCache = new ObjectCache(config.getLong("cacheBytes", DEFAULT_CACHE_BYTES));
+    }
 
     /**
-     * Returns the path of working directory.
-     * Find the path by recursively going back to parent directory and
-     * check if .gitlet exists.
+     * Returns the repository that contains {@code dir}, found by going back to parent directories
+     * until one contains .gitlet. Relative paths given to commands are relative to {@code dir}.
      * */
-    static File getWorkRootDir() {
-        File p = CWD;
-        while (p != null) {
-            if (join(p, ".gitlet").isDirectory()) {
-                return p;
-            }
-            p = p.getParentFile();
+    public static Repository open(File dir) {
+        File cwd = dir.getAbsoluteFile();
+        File root = findWorkRoot(cwd);
+        if (root == null) {
+            exit(NOT_A_REPOSITORY);
         }
-        exit("not a gitlet repository (or any of the parent directories): .gitlet");
-        return null;
+        return new Repository(root, cwd);
+    }
+
+    /** Returns the objects of this repository. */
+    ObjectStore getObjectStore() {
+        return objectStore;
+    }
+
+    /**
+     * Returns the objects of the repository in {@code gitletDir}, written with the settings in its config,
+     * so that objects pushed to a remote are written the way the remote writes its own.
+     * */
+    private static ObjectStore openObjectStore(File gitletDir, Config config) {
+        return new ObjectStore(join(gitletDir, "objects"), getCompressionLevel(config),
+                config.getLong("chunkThreshold", DEFAULT_CHUNK_THRESHOLD));
+    }
+
+    /** Returns the compression level of new objects, from -1 (default) to 9, see setting compression. */
+    private static int getCompressionLevel(Config config) {
+        long level = config.getLong("compression", Deflater.DEFAULT_COMPRESSION);
+        if (!ObjectCompression.isValidLevel(level)) {
+            exit("Invalid value of %s in config: %s", "compression", level);
+        }
+        return (int) level;
     }
 
     /**
      * Update the commit hash value of head after each commit.
+     * Fails if another process moved the head since the commit was made, see {@link RefLock}.
+     * @param parentID Hash value of the parent of the commit, null for the initial commit.
      * @param commitID Hash value of last commit.
      * */
-    protected static void updateHeadAfterCommit(String commitID) {
-        File currentHead = getCurrentHeadFile();
-        writeContents(currentHead, commitID);
+    protected void updateHeadAfterCommit(ObjectId parentID, ObjectId commitID) {
+        moveCurrentHead(parentID, commitID);
+    }
+
+    /** Moves the current branch from {@code oldID} to {@code newID}, see {@link RefLock}. */
+    private void moveCurrentHead(ObjectId oldID, ObjectId newID) {
+        RefLock.compareAndSet(getCurrentHeadFile(), oldID == null ? null : oldID.name(), newID.name());
     }
 
     /**
@@ -72,115 +176,299 @@ public class Repository {
      * .gitlet/refs/heads/[branch]
      * @return The file that stores head.
      * */
-    private static File getCurrentHeadFile() {
-        return join(GITLET_DIR, readContentsAsString(GITLET_HEAD_FILE));
+    private File getCurrentHeadFile() {
+        return join(gitletDir, readContentsAsString(headFile));
     }
 
     /** Get ID of the last commit. */
-    public static String getCurrentHeadCommitID() {
+    public ObjectId getCurrentHeadCommitID() {
         File currentHead = getCurrentHeadFile();
-        return readContentsAsString(currentHead);
+        return readRef(currentHead);
+    }
+
+    /** Returns the commit ID stored in a branch head file. */
+    private ObjectId readRef(File ref) {
+        return ObjectId.fromString(readContentsAsString(ref));
     }
 
     /** Read the commit object of last commit. */
-    private static Commit readCurrentHeadCommitObject() {
-        String lastCommitID = getCurrentHeadCommitID();
+    private Commit readCurrentHeadCommitObject() {
+        ObjectId lastCommitID = getCurrentHeadCommitID();
         return readCommitObjectByID(lastCommitID);
     }
 
-    /** Returns the commit object by the specified commit hash value. */
-    protected static Commit readCommitObjectByID(String commitID) {
-        File lastCommitFile = getFileInObjectsByID(commitID);
-        return readObject(lastCommitFile, Commit.class);
+    /**
+     * Returns the commit object by the specified commit hash value.
+     * The commit remembers the hash value, see {@link Commit#getHashValue()}.
+     * */
+    protected Commit readCommitObjectByID(ObjectId commitID) {
+        Commit commit = readObjectFromObjectsByID(commitID, Commit.class);
+        commit.setHashValue(commitID);
+        return commit;
+    }
+
+    /** Returns the staging area object, which is read once per Repository object. */
+    private synchronized Stage readStageObject() {
+        if (index == null) {
+            // taken before reading, so a write in between is noticed by revalidateStageObject
+            indexModified = getIndexModifiedTime();
+            indexSize = indexFile.length();
+            byte[] content = readContents(indexFile);
+            if (ObjectCodec.isLegacy(content)) {
+                index = deserialize(content, Stage.class);
+            } else {
+                index = ObjectCodec.decode(content, Stage.class);
+            }
+        }
+        return index;
     }
 
-    /** Returns the staging area object */
-    private static Stage readStageObject() {
-        return readObject(GITLET_INDEX_FILE, Stage.class);
+    /**
+     * Forgets the staging area read by this object, so the next command reads it again.
+     * Used after a command failed, which may have left it half changed.
+     * */
+    public void discardStageObject() {
+        lock.writeLock().lock();
+        try {
+            index = null;
+            indexStatsChanged = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forgets the staging area read by this object if the index file changed since this object read or wrote it,
+     * i.e., another process changed the staging area, so the next command reads it again.
+     * Used before each command of a {@link BatchSession}.
+     * */
+    public void revalidateStageObject() {
+        lock.writeLock().lock();
+        try {
+            if (index != null && (!getIndexModifiedTime().equals(indexModified) || indexFile.length() != indexSize)) {
+                index = null;
+                indexStatsChanged = false;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Returns the modification time of the index file, or the epoch if it doesn't exist. */
+    private FileTime getIndexModifiedTime() {
+        try {
+            return Files.getLastModifiedTime(indexFile.toPath());
+        } catch (IOException excp) {
+            return FileTime.fromMillis(0);
+        }
     }
 
     /** Saves the staging area object */
-    private static void writeStageObject(Stage stage) {
-        writeObject(GITLET_INDEX_FILE, stage);
+    private void writeStageObject(Stage stage) {
+        writeContents(indexFile, ObjectCodec.encode(stage));
+        index = stage;
+        indexStatsChanged = false;
+        indexModified = getIndexModifiedTime();
+        indexSize = indexFile.length();
+    }
+
+    /**
+     * Saves the stat data recorded by this object, if any, see {@link #hashWorkFiles(Collection)}.
+     * Stat data is only a cache, so it is not saved while other commands hold the lock, and a later call saves it.
+     * */
+    public void saveIndexStats() {
+        if (!lock.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            if (indexStatsChanged) {
+                writeStageObject(index);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /** Get the relative File object in .gitlet/objects/ based on HASHVALUE. */
-    protected static File getRelFileInObjectsByID(String hashValue) {
-        return join(hashValue.substring(0, 2), hashValue.substring(2));
+    protected static File getRelFileInObjectsByID(ObjectId hashValue) {
+        String name = hashValue.name();
+        return join(name.substring(0, 2), name.substring(2));
     }
 
-    /** Get the File object in .gitlet/objects/ based on hashValue. */
-    private static File getFileInObjectsByID(String hashValue) {
-        return join(GITLET_OBJECTS_DIR, getRelFileInObjectsByID(hashValue).toString());
+    /** Returns the content in .gitlet/objects based on hash value, whether loose or packed. */
+    private byte[] readContentsFromObjectsByID(ObjectId hashValue) {
+        return objectStore.read(hashValue);
     }
 
     /** Returns the specified object by reading the content in .gitlet/objects based on hash value. */
-    protected static <T extends Serializable> T readObjectFromObjectsByID(String hashValue,
-                                                                          Class<T> expectedClass) {
-        File commit = Repository.getFileInObjectsByID(hashValue);
-        return Utils.readObject(commit, expectedClass);
+    protected <T extends Serializable> T readObjectFromObjectsByID(ObjectId hashValue,
+                                                                   Class<T> expectedClass) {
+        Object cached = objectCache.get(hashValue);
+        if (cached != null) {
+            try {
+                return expectedClass.cast(cached);
+            } catch (ClassCastException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        byte[] content = readContentsFromObjectsByID(hashValue);
+        if (ObjectCodec.isLegacy(content)) {
+            exit("This repository was written by an older version of gitlet; run migrate first.");
+        }
+        T obj = ObjectCodec.decode(content, expectedClass);
+        objectCache.put(hashValue, obj, content.length);
+        return obj;
     }
 
-    /** Check if a File object is in .gitlet/objects/ based on HASHVALUE. */
-    private static boolean isFileInObjects(String hashValue) {
-        return getFileInObjectsByID(hashValue).isFile();
+    /** Check if an object is in .gitlet/objects/ based on HASHVALUE, whether loose or packed. */
+    private boolean isFileInObjects(ObjectId hashValue) {
+        return objectStore.contains(hashValue);
     }
 
-    /** Returns the hash code of a file. */
-    private static String sha1OfFile(File f) {
-        byte[] fileContent = readContents(f);
+    /**
+     * Returns the hash codes of files in the working directory, hashed in parallel by
+     * {@link #workTreeHasher}, and records their new stat data in the index.
+     * Files that don't exist are not in the returned map.
+     *
+     * @param files Relative paths to workDir.
+     * */
+    private Map<File, ObjectId> hashWorkFiles(Collection<File> files) {
+        return hashWorkFiles(files, null);
+    }
+
+    /**
+     * Returns the hash codes of files in the working directory, like {@link #hashWorkFiles(Collection)}.
+     * Files that are read are also stored in {@code store} in the same pass.
+     *
+     * @param files Relative paths to workDir.
+     * @param store Where the files that are read are stored, null if they are only hashed.
+     * */
+    private Map<File, ObjectId> hashWorkFiles(Collection<File> files, ObjectStore store) {
+        Stage stage = readStageObject();
+        // files are hashed without holding the monitor, so concurrent readers hash in parallel
+        Map<File, FileStat> recorded = getRecordedStats(stage, files);
+        Map<File, FileStat> stats = workTreeHasher.hash(new ArrayList<>(files), recorded, store);
+        return recordStats(stage, files, recorded, stats);
+    }
 
-        return sha1(fileContent);
+    /** Returns the stat data recorded in the staging area for the files. */
+    private synchronized Map<File, FileStat> getRecordedStats(Stage stage, Collection<File> files) {
+        Map<File, FileStat> recorded = new HashMap<>();
+        for (File file : files) {
+            FileStat stat = stage.getStat(file);
+            if (stat != null) {
+                recorded.put(file, stat);
+            }
+        }
+        return recorded;
     }
 
     /**
-     * Adds a copy of the file as it currently exists to the staging area.
-     * If the current working version of the file is identical to the version
-     * in the current commit, do not stage it to be added,
-     * and remove it from the staging area if it is already there
-     * (as can happen when a file is changed, added, and then changed back to it’s original version).
+     * Records the new stat data of hashed files in the staging area, and returns their hash values.
+     *
+     * @param recorded Stat data the files were hashed with.
+     * @param stats Stat data of the files that exist.
      * */
-    public static void addFile(String filename) throws IOException {
-        File fileToAdd = new File(filename);
-        if (!fileToAdd.isFile()) {
-            exit("File does not exist.");
+    private synchronized Map<File, ObjectId> recordStats(Stage stage, Collection<File> files,
+                                                         Map<File, FileStat> recorded, Map<File, FileStat> stats) {
+        long now = System.currentTimeMillis();
+        Map<File, ObjectId> hashValues = new HashMap<>();
+        for (File file : files) {
+            FileStat stat = stats.get(file);
+            FileStat old = recorded.get(file);
+            if (stat != null) {
+                hashValues.put(file, stat.getHashValue());
+            }
+            if (stat != null && stat == old) {
+                statHits += 1;
+                continue;
+            }
+            if (stat != null) {
+                statMisses += 1;
+            }
+            if (stat != null && !stat.isRacy(now)) {
+                stage.putStat(file, stat);
+                indexStatsChanged = true;
+            } else if (old != null) {
+                stage.getStats().remove(file);
+                indexStatsChanged = true;
+            }
         }
-        File relativePathFileToAdd = relativeSimplePath(fileToAdd.getAbsoluteFile());
-        addFile(relativePathFileToAdd);
+        return hashValues;
     }
 
     /**
-     * Adds a copy of the file as it currently exists to the staging area.
-     * If the current working version of the file is identical to the version
+     * Adds copies of the files as they currently exist to the staging area.
+     * A directory, including ".", adds every file under it.
+     * All paths are checked before anything is staged.
+     *
+     * @param filenames Paths relative to the current directory.
+     * */
+    public void addFiles(String[] filenames) throws IOException {
+        lock.writeLock().lock();
+        try {
+            List<File> filesToAdd = new ArrayList<>();
+            for (String filename : filenames) {
+                if (!resolve(filename).exists()) {
+                    exit("File does not exist.");
+                }
+            }
+            for (String filename : filenames) {
+                File fileToAdd = resolve(filename);
+                File relativePath = relativeSimplePath(fileToAdd);
+                if (fileToAdd.isDirectory()) {
+                    for (File f : new WorkTreeWalker(fileToAdd, parallelism).walk()) {
+                        filesToAdd.add(relativePath.getPath().isEmpty() ? f : new File(relativePath, f.getPath()));
+                    }
+                } else {
+                    filesToAdd.add(relativePath);
+                }
+            }
+            addFiles(filesToAdd);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds copies of the files as they currently exist to the staging area.
+     * If the current working version of a file is identical to the version
      * in the current commit, do not stage it to be added,
      * and remove it from the staging area if it is already there
      * (as can happen when a file is changed, added, and then changed back to it’s original version).
+     * The files are hashed and their blobs written in parallel, in a single pass over each file,
+     * and the staging area is written once at the end.
      *
-     * @param file Relative path to WORK_DIR.
+     * @param files Relative paths to workDir.
      * */
-    private static void addFile(File file) {
+    private void addFiles(Collection<File> files) {
         Stage stage = readStageObject();
+        ObjectId treeID = readCurrentHeadCommitObject().getTreeHashValue();
 
-        // hash value of file content
-        String hashValue = sha1OfFile(getAbsoluteFileFromWorkDir(file));
+        // hash values of file contents, files that are read are stored as well
+        Map<File, ObjectId> hashValues = hashWorkFiles(files, objectStore);
 
         // update staging area
-        stage.removeFromRemoveStage(file);
-//        System.out.printf("Remove from remove staging %s\n", relativePathFileToAdd);  // debug
-        if (inLastCommit(file, hashValue)) {
-            stage.removeFromAddStage(file);
-//            System.out.printf("Remove from add staging %s: %s\n", relativePathFileToAdd, hashValue);  // debug
-        } else {
-            stage.addToAddStage(file, hashValue);
-//            System.out.printf("Add to add staging %s: %s\n", relativePathFileToAdd, hashValue);  // debug
+        Map<ObjectId, File> blobsToWrite = new HashMap<>();
+        for (File file : files) {
+            ObjectId hashValue = hashValues.get(file);
+            if (hashValue == null) {
+                throw error("File %s does not exist.", file);
+            }
+            stage.removeFromRemoveStage(file);
+            if (hashValue.equals(getHashFromTree(treeID, file))) {
+                stage.removeFromAddStage(file);
+            } else {
+                stage.addToAddStage(file, hashValue);
+                if (!blobsToWrite.containsKey(hashValue) && !isFileInObjects(hashValue)) {
+                    blobsToWrite.put(hashValue, getAbsoluteFileFromWorkDir(file));
+                }
+            }
         }
-        writeStageObject(stage);
 
-        // save blob
-        if (!isFileInObjects(hashValue)) {
-            writeContentsInBytes(getAbsoluteFileFromWorkDir(file), getFileInObjectsByID(hashValue));
-//            System.out.printf("Add to objects %s: %s\n", relativePathFileToAdd, hashValue);  // debug
-        }
+        // save blobs of files that weren't read, before the index refers to them
+        objectStore.writeFiles(blobsToWrite, parallelism);
+        writeStageObject(stage);
     }
 
     /**
@@ -195,52 +483,32 @@ public class Repository {
     }
 
     /**
-     * Returns the simplified path relative to WORK_DIR.
+     * Returns the simplified path relative to workDir.
      * @param dest Target path.
      * @return Src/return is target.
      * */
-    protected static File relativeSimplePath(File dest) throws IOException {
-        return WORK_DIR.getCanonicalFile().toPath().relativize(
+    protected File relativeSimplePath(File dest) throws IOException {
+        return workDir.getCanonicalFile().toPath().relativize(
                 dest.getCanonicalFile().toPath()).toFile();
     }
 
-    /** Check if the file to add is among the most recent commit.
-     * Among means
-     * 1. the contents, i.e., the hash values of content are the same, and
-     * 2. the file paths are the same.
-     * @param file The file to add.
-     * @param hashValue The hash value of file content to add.
-     * @return Returns true if the file to add is among the most recent commit,
-     * returns false otherwise.
-     * */
-    private static boolean inLastCommit(File file, String hashValue) {
-        FileTree fileTree = readCurrentHeadCommitObject().getFileTree();
-
-        return isFileInTree(file, hashValue, fileTree);
-    }
-
-    private static boolean inLastCommit(File file) {
-        String hashValue = sha1OfFile(getAbsoluteFileFromWorkDir(file));
-
-        return inLastCommit(file, hashValue);
-    }
-
     /** Returns {@code true} if the file is in the recent commit. */
-    private static boolean nameInLastCommit(File file) {
-        FileTree fileTree = readCurrentHeadCommitObject().getFileTree();
+    private boolean nameInLastCommit(File file) {
+        ObjectId treeID = readCurrentHeadCommitObject().getTreeHashValue();
 
-        return fileTree.contains(file);
+        return getHashFromTree(treeID, file) != null;
     }
 
     /**
-     * Write serializable OBJ in GITLET_OBJECTS_DIR
+     * Write commit or file tree OBJ in objectsDir
      * and return the sha1 hash value of OBJ.
-     * @param obj Serializable object.
+     * @param obj Commit or FileTree object.
      * @return The sha1 hash value of OBJ.
      * */
-    protected static String writeObjectInDir(Serializable obj) {
-        String hashValue = sha1(serialize(obj));
-        writeObject(GITLET_OBJECTS_DIR, hashValue, obj);
+    protected ObjectId writeObjectInDir(Serializable obj) {
+        byte[] content = ObjectCodec.encode(obj);
+        ObjectId hashValue = ObjectId.hash(content);
+        objectStore.write(hashValue, content);
 
         return hashValue;
     }
@@ -250,10 +518,15 @@ public class Repository {
      * and staging area so they can be restored at a later time,
      * creating a new commit.
      * */
-    public static void commit(String msg) {
-        String commitTreeHashValue = getCommitTreeHashValue(msg);
-        Commit newCommit = new Commit(msg, commitTreeHashValue);
-        finishCommit(newCommit);
+    public void commit(String msg) {
+        lock.writeLock().lock();
+        try {
+            ObjectId commitTreeHashValue = getCommitTreeHashValue(msg);
+            Commit newCommit = new Commit(msg, getCurrentHeadCommitID(), null, commitTreeHashValue);
+            finishCommit(newCommit);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -261,14 +534,14 @@ public class Repository {
      * and staging area so they can be restored at a later time,
      * creating a new commit.
      * */
-    public static void commit(String msg, String secondParentHashValue) {
-        String commitTreeHashValue = getCommitTreeHashValue(msg);
-        Commit newCommit = new Commit(msg, commitTreeHashValue, secondParentHashValue);
+    private void commit(String msg, ObjectId secondParentHashValue) {
+        ObjectId commitTreeHashValue = getCommitTreeHashValue(msg);
+        Commit newCommit = new Commit(msg, getCurrentHeadCommitID(), secondParentHashValue, commitTreeHashValue);
         finishCommit(newCommit);
     }
 
     /** Returns the hash value of commit tree. */
-    private static String getCommitTreeHashValue(String msg) {
+    private ObjectId getCommitTreeHashValue(String msg) {
         // commit tree
         Stage stage = readStageObject();
         if (stage.isEmpty()) {
@@ -277,29 +550,156 @@ public class Repository {
         if (msg.isEmpty()) {
             exit("Please enter a commit message.");
         }
-        FileTree commitTree = readCurrentHeadCommitObject().getFileTree();
+        ObjectId headTree = readCurrentHeadCommitObject().getTreeHashValue();
 
-        commitTree.update(stage);
+        return writeTree(headTree, stage);
+    }
+
+    /**
+     * Writes the tree of {@code base} updated by the staging area and returns the hash value of its root.
+     * Only the directories on the paths to staged files are read and rewritten,
+     * other subtrees are shared with {@code base}.
+     *
+     * @param base Hash value of the root tree of the last commit, null if there is none.
+     * @param stage The staging area.
+     * */
+    private ObjectId writeTree(ObjectId base, Stage stage) {
+        Map<File, ObjectId> changes = new TreeMap<>(stage.getAddStage());
+        for (File file : stage.getRemoveStage()) {
+            changes.put(file, null);
+        }
+        DirectoryTree root = new DirectoryTree();
+        if (base != null) {
+            Dumpable tree = readObjectFromObjectsByID(base, Dumpable.class);
+            if (tree instanceof FileTree) {
+                // flat tree written by an older version, every file goes into the new tree
+                FileTree fileTree = readFileTree(base);
+                fileTree.update(stage);
+                changes = fileTree.getStage();
+            } else {
+                root = new DirectoryTree((DirectoryTree) tree);
+            }
+        }
+        updateDirectory(root, changes);
+        return writeObjectInDir(root);
+    }
+
+    /**
+     * Applies the changes to the tree of a directory, writing the changed subtrees.
+     *
+     * @param tree Tree of the directory.
+     * @param changes Map from path relative to the directory to the new hash value,
+     *                or to null if the file is removed.
+     * */
+    private void updateDirectory(DirectoryTree tree, Map<File, ObjectId> changes) {
+        Map<String, Map<File, ObjectId>> subdirectoryChanges = new TreeMap<>();
+        for (Map.Entry<File, ObjectId> e : changes.entrySet()) {
+            Path path = e.getKey().toPath();
+            int n = path.getNameCount();
+            if (n == 1) {
+                tree.putFile(path.toString(), e.getValue());
+            } else {
+                subdirectoryChanges.computeIfAbsent(path.getName(0).toString(), k -> new TreeMap<>())
+                        .put(path.subpath(1, n).toFile(), e.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<File, ObjectId>> e : subdirectoryChanges.entrySet()) {
+            ObjectId subtreeID = tree.getDirectories().get(e.getKey());
+            DirectoryTree subtree = subtreeID == null
+                    ? new DirectoryTree()
+                    : new DirectoryTree(readObjectFromObjectsByID(subtreeID, DirectoryTree.class));
+            updateDirectory(subtree, e.getValue());
+            // empty directories are not tracked
+            tree.putDirectory(e.getKey(), subtree.isEmpty() ? null : writeObjectInDir(subtree));
+        }
+    }
+
+    /**
+     * Returns all files in a tree as a FileTree, a map from path to hash value.
+     *
+     * @param treeID Hash value of either a DirectoryTree or a flat FileTree written by an older version.
+     * */
+    protected FileTree readFileTree(ObjectId treeID) {
+        Dumpable tree = readObjectFromObjectsByID(treeID, Dumpable.class);
+        FileTree fileTree = new FileTree();
+        if (tree instanceof FileTree) {
+            // copy, the cached tree must not be modified
+            fileTree.getStage().putAll(((FileTree) tree).getStage());
+        } else {
+            addFilesInDirectory((DirectoryTree) tree, null, fileTree);
+        }
+        return fileTree;
+    }
+
+    /** Returns all files in the tree of a commit, see {@link #readFileTree(ObjectId)}. */
+    private FileTree getFileTree(Commit commit) {
+        if (commit.getTreeHashValue() == null) {
+            return new FileTree();
+        }
+        return readFileTree(commit.getTreeHashValue());
+    }
+
+    /**
+     * Returns the hash value of a file in a tree, or null if the tree doesn't contain it.
+     * Only the trees of the directories on the path of the file are read.
+     *
+     * @param treeID Hash value of the root tree, null if there is none.
+     * @param file Relative path to workDir.
+     * */
+    private ObjectId getHashFromTree(ObjectId treeID, File file) {
+        if (treeID == null) {
+            return null;
+        }
+        Dumpable tree = readObjectFromObjectsByID(treeID, Dumpable.class);
+        if (tree instanceof FileTree) {
+            return ((FileTree) tree).getHashFromFile(file);
+        }
+        DirectoryTree directory = (DirectoryTree) tree;
+        Path path = file.toPath();
+        for (int i = 0; i < path.getNameCount() - 1; i += 1) {
+            ObjectId subtreeID = directory.getDirectories().get(path.getName(i).toString());
+            if (subtreeID == null) {
+                return null;
+            }
+            directory = readObjectFromObjectsByID(subtreeID, DirectoryTree.class);
+        }
+        return directory.getFiles().get(path.getFileName().toString());
+    }
 
-        return writeObjectInDir(commitTree);
+    /** Adds all files under the directory {@code dir}, whose tree is {@code tree}, to {@code fileTree}. */
+    private void addFilesInDirectory(DirectoryTree tree, File dir, FileTree fileTree) {
+        for (Map.Entry<String, ObjectId> e : tree.getFiles().entrySet()) {
+            fileTree.put(new File(dir, e.getKey()), e.getValue());
+        }
+        for (Map.Entry<String, ObjectId> e : tree.getDirectories().entrySet()) {
+            DirectoryTree subtree = readObjectFromObjectsByID(e.getValue(), DirectoryTree.class);
+            addFilesInDirectory(subtree, new File(dir, e.getKey()), fileTree);
+        }
     }
 
     /** Writes the new commit object, updates HEAD, and cleans staging area. */
-    private static void finishCommit(Commit newCommit) {
-        String newCommitHashValue = writeObjectInDir(newCommit);
+    private void finishCommit(Commit newCommit) {
+        ObjectId newCommitHashValue = writeObjectInDir(newCommit);
 //        System.out.printf("New commit %s\n", newCommitHashValue);  // debug
 
         // head
-        updateHeadAfterCommit(newCommitHashValue);
+        updateHeadAfterCommit(newCommit.getParentHashValue(), newCommitHashValue);
 
         // staging area
         resetStage();
+
+        messageIndex.addCommit(newCommitHashValue, newCommit);
+        messageIndex.save();
     }
 
     /** Clean staging area. */
-    protected static void resetStage() {
+    protected void resetStage() {
         Stage emptyStage = new Stage();
-        writeObject(GITLET_INDEX_FILE, emptyStage);
+        if (indexFile.isFile()) {
+            // stat data stays valid
+            emptyStage.getStats().putAll(readStageObject().getStats());
+        }
+        writeStageObject(emptyStage);
     }
 
     /**
@@ -309,10 +709,14 @@ public class Repository {
      * if the user has not already done so
      * (do not remove it unless it is tracked in the current commit).
      * */
-    public static void removeFile(String filename) throws IOException {
-        File fileToRemove = new File(filename);
-        File relativePathFileToRemove = relativeSimplePath(fileToRemove.getAbsoluteFile());
-        removeFile(relativePathFileToRemove);
+    public void removeFile(String filename) throws IOException {
+        lock.writeLock().lock();
+        try {
+            File relativePathFileToRemove = relativeSimplePath(resolve(filename));
+            removeFile(relativePathFileToRemove);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -322,9 +726,9 @@ public class Repository {
      * if the user has not already done so
      * (do not remove it unless it is tracked in the current commit).
      *
-     * @param file Relative path to WORK_DIR.
+     * @param file Relative path to workDir.
      * */
-    private static void removeFile(File file) {
+    private void removeFile(File file) {
         Stage stage = readStageObject();
         boolean containsFileInAddStage = stage.containsFileInAddStage(file);
         boolean containsFileInLastCommit = nameInLastCommit(file);
@@ -357,35 +761,53 @@ public class Repository {
      *
      * For every node in this history, the information it should display is
      * the commit id, the time the commit was made, and the commit message.
+     * Output is buffered, and the walk stops after {@code maxCount} commits.
      * */
-    public static void printLog() {
-        Commit commit = readCurrentHeadCommitObject();
-        for (Commit c : commit.traverseBack()) {
-            c.dump();
+    public void printLog(int maxCount) {
+        lock.readLock().lock();
+        try {
+            Commit commit = readCurrentHeadCommitObject();
+            PrintWriter out = bufferedOutput();
+            Iterator<Commit> it = new CommitTraversal(this, commit).iterator();
+            for (int cnt = 0; cnt < maxCount && it.hasNext(); cnt += 1) {
+                it.next().writeLog(out);
+            }
+            out.flush();
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
     /** Like log, except displays information about all commits ever made. */
-    public static void printGlobalLog() {
-        for (Commit c : getAllCommits()) {
-            c.dump();
+    public void printGlobalLog() {
+        lock.readLock().lock();
+        try {
+            PrintWriter out = bufferedOutput();
+            for (Commit c : getAllCommits()) {
+                c.writeLog(out);
+            }
+            out.flush();
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
     /** Returns a list of the names of all branches in lexicographic order*/
-    private static List<String> getAllBranches() {
-        return plainFilenamesIn(GITLET_HEADS_DIR);
+    private List<String> getAllBranches() {
+        List<String> branches = new ArrayList<>(plainFilenamesIn(headsDir));
+        branches.removeIf(RefLock::isLockFile);
+        return branches;
     }
 
     /** Returns list of head commits of all branches. */
-    private static Set<String> getAllBranchIDs() {
+    private Set<ObjectId> getAllBranchIDs() {
         List<String> headList = getAllBranches();
-        Set<String> headIDs = new TreeSet<>();
+        Set<ObjectId> headIDs = new TreeSet<>();
 
         assert headList != null;
         for (String h : headList) {
             File headFile = getBranchHeadFile(h);
-            String headID = readContentsAsString(headFile);
+            ObjectId headID = readRef(headFile);
             headIDs.add(headID);
         }
 
@@ -393,28 +815,70 @@ public class Repository {
     }
 
     /** Returns a set of all distinct commits. */
-    private static CommitGlobalTraversal getAllCommits() {
+    private CommitGlobalTraversal getAllCommits() {
         // get all branch heads
-        Set<String> branchIDs = getAllBranchIDs();
+        Set<ObjectId> branchIDs = getAllBranchIDs();
 
         // get all distinct commits
-        return new CommitGlobalTraversal(branchIDs);
+        return new CommitGlobalTraversal(this, branchIDs);
     }
 
 
     /** Prints out the ids of all commits that have the given commit message, one per line.
-     * If there are multiple such commits, it prints the ids out on separate lines. */
-    public static void findCommit(String msg) {
-        int cnt = 0;
-        for (Commit c : getAllCommits()) {
-            if (c.getMessage().contains(msg)) {
-                c.printID();
-                cnt += 1;
+     * If there are multiple such commits, it prints the ids out on separate lines.
+     * Messages are looked up in {@link #messageIndex}, so no commit objects are read. */
+    public void findCommit(String msg) {
+        lock.readLock().lock();
+        try {
+            Set<ObjectId> heads = updateMessageIndex();
+            printFoundCommits(heads, messageIndex.findContaining(msg));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Like find, except prints the ids of all commits whose message contains a match of the regular expression. */
+    public void findCommitByPattern(String regex) {
+        lock.readLock().lock();
+        try {
+            Pattern pattern = null;
+            try {
+                pattern = Pattern.compile(regex);
+            } catch (PatternSyntaxException excp) {
+                exit("Invalid pattern.");
             }
+            Set<ObjectId> heads = updateMessageIndex();
+            printFoundCommits(heads, messageIndex.findMatching(pattern));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Indexes the commits of all branches that are not indexed yet, and returns the branch heads. */
+    private Set<ObjectId> updateMessageIndex() {
+        Set<ObjectId> heads = getAllBranchIDs();
+        for (ObjectId head : heads) {
+            messageIndex.update(head);
         }
-        if (cnt == 0) {
+        messageIndex.save(MessageIndex.MAX_DELTA_AFTER_QUERY);
+        return heads;
+    }
+
+    /**
+     * Prints the ids of the commits among {@code found} that are reachable from {@code heads}, newest first.
+     * The index also holds commits of removed branches and fetched commits, which find doesn't show.
+     * */
+    private void printFoundCommits(Set<ObjectId> heads, List<ObjectId> found) {
+        List<ObjectId> reachable = commitGraph.filterReachable(heads, found);
+        commitGraph.save();
+        if (reachable.isEmpty()) {
             exit("Found no commit with that message.");
         }
+        PrintWriter out = bufferedOutput();
+        for (ObjectId id : reachable) {
+            out.println(id.name());
+        }
+        out.flush();
     }
 
     /**
@@ -431,19 +895,24 @@ public class Repository {
      * but neither staged for addition nor tracked.
      * This includes files that have been staged for removal, but then re-created without Gitlet’s knowledge.
      * */
-    public static void printStatus() throws IOException {
-        // branches
-        printBranches();
-        // staged and removed files
-        readStageObject().dump();
-        // Modifications Not Staged For Commit
-        printUnStagedChanges();
-        // untracked files
-        printUntrackedFiles();
+    public void printStatus() throws IOException {
+        lock.readLock().lock();
+        try {
+            // branches
+            printBranches();
+            // staged and removed files
+            readStageObject().printRelativeTo(getCwdFromWorkDir());
+            // Modifications Not Staged For Commit
+            printUnStagedChanges();
+            // untracked files
+            printUntrackedFiles();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /** Displays what branches currently exist, and marks the current branch with a *. */
-    private static void printBranches() {
+    private void printBranches() {
         List<String> branches = getAllBranches();
         String currentBranch = getCurrentBranch();
         boolean foundCurrentBranch = false;
@@ -466,21 +935,26 @@ public class Repository {
      * - Staged for addition, but deleted in the working directory; or
      * - Not staged for removal, but tracked in the current commit and deleted from the working directory.
      * */
-    private static void printUnStagedChanges() throws IOException {
+    private void printUnStagedChanges() throws IOException {
         System.out.println("=== Modifications Not Staged For Commit ===");
-        FileTree currentCommitFileTree = readCurrentHeadCommitObject().getFileTree();
+        FileTree currentCommitFileTree = getFileTree(readCurrentHeadCommitObject());
         Stage stage = readStageObject();
 
         Set<String> unstaged = new TreeSet<>();
 
+        // hash all tracked files at once
+        Set<File> tracked = new HashSet<>(currentCommitFileTree.getFileSet());
+        tracked.addAll(stage.getAddStageFileSet());
+        Map<File, ObjectId> hashValues = hashWorkFiles(tracked);
+
         // iterate add stage
         for (File f : stage.getAddStageFileSet()) {
             File rel = getFileRelativeToCWD(f);
-            File abs = getAbsoluteFileFromWorkDir(f);
-            if (!abs.exists()) {
+            ObjectId hashValue = hashValues.get(f);
+            if (hashValue == null) {
                 // does not exist
                 unstaged.add(rel + " (deleted)");
-            } else if (!sha1OfFile(abs).equals(stage.getHashAddStage(f))) {
+            } else if (!hashValue.equals(stage.getHashAddStage(f))) {
                 // hash value is not the same
                 unstaged.add(rel + " (modified)");
             }
@@ -489,12 +963,11 @@ public class Repository {
         // iterate commit file tree
         for (File f : currentCommitFileTree.getFileSet()) {
             File rel = getFileRelativeToCWD(f);
-            File abs = getAbsoluteFileFromWorkDir(f);
-            if (!abs.exists() && !stage.containsFileInRemoveStage(f)) {
+            ObjectId hashValue = hashValues.get(f);
+            if (hashValue == null && !stage.containsFileInRemoveStage(f)) {
                 // does not exist, not in remove staging area
                 unstaged.add(rel + " (deleted)");
-            } else if (abs.exists()) {
-                String hashValue = sha1OfFile(abs);
+            } else if (hashValue != null) {
                 if (!hashValue.equals(currentCommitFileTree.getHashFromFile(f)) && !stage.containsFileInAddStage(f)) {
                     // hash value is not the same, not in add staging area
                     // if file is in the add staging area, then the logic is in the above iteration
@@ -503,6 +976,8 @@ public class Repository {
             }
         }
 
+        forgetStats(stage, tracked);
+
         List<String> unstagedFileName = new ArrayList<>();
         unstagedFileName.addAll(unstaged);
         Collections.sort(unstagedFileName);
@@ -513,29 +988,49 @@ public class Repository {
 
     }
 
+    /** Forgets the stat data of files that are no longer tracked. */
+    private synchronized void forgetStats(Stage stage, Set<File> tracked) {
+        if (stage.getStats().keySet().retainAll(tracked)) {
+            indexStatsChanged = true;
+        }
+    }
+
     /**
-     * Returns the file path relative to CWD.
-     * @param f Path relative to WORK_DIR.
+     * Returns the file path relative to cwd.
+     * @param f Path relative to workDir.
      * */
-    protected static File getFileRelativeToCWD(File f) throws IOException {
-        return relativeSimplePath(CWD, getAbsoluteFileFromWorkDir(f));
+    protected File getFileRelativeToCWD(File f) throws IOException {
+        return getCwdFromWorkDir().relativize(f.toPath()).toFile();
+    }
+
+    /** Returns cwd relative to workDir. */
+    private Path getCwdFromWorkDir() throws IOException {
+        if (cwdFromWorkDir == null) {
+            cwdFromWorkDir = relativeSimplePath(cwd).toPath();
+        }
+        return cwdFromWorkDir;
+    }
+
+    /** Returns the file of a path given to a command, which is relative to cwd unless it is absolute. */
+    private File resolve(String filename) {
+        File file = new File(filename);
+        return file.isAbsolute() ? file : join(cwd, filename);
     }
 
     /**
      * Returns the absolute path file.
-     * @param f Relative path file from WORK_DIR.
+     * @param f Relative path file from workDir.
      * */
-    protected static File getAbsoluteFileFromWorkDir(File f) {
+    protected File getAbsoluteFileFromWorkDir(File f) {
         return getAbsoluteFileFromWorkDir(f.toString());
     }
 
     /**
      * Returns the absolute path file.
-     * @param f Relative path file from WORK_DIR.
+     * @param f Relative path file from workDir.
      * */
-    private static File getAbsoluteFileFromWorkDir(String f) {
-        assert WORK_DIR != null;
-        return join(WORK_DIR, f);
+    private File getAbsoluteFileFromWorkDir(String f) {
+        return join(workDir, f);
     }
 
     /**
@@ -544,11 +1039,11 @@ public class Repository {
      * This includes files that have been staged for removal,
      * but then re-created without Gitlet’s knowledge.
      * */
-    private static void printUntrackedFiles() throws IOException {
+    private void printUntrackedFiles() throws IOException {
         System.out.println("=== Untracked Files ===");
-        FileTree currentCommitFileTree = readCurrentHeadCommitObject().getFileTree();
+        FileTree currentCommitFileTree = getFileTree(readCurrentHeadCommitObject());
         Stage stage = readStageObject();
-        List<File> allFiles = listFiles(WORK_DIR.getAbsolutePath());
+        List<File> allFiles = workTreeWalker.walk();
 
         // add all files to set
         Set<File> untracked = new TreeSet<>(allFiles);
@@ -564,7 +1059,7 @@ public class Repository {
             }
         }
 
-        // file path relative to CWD
+        // file path relative to cwd
         List<File> untrackedFile = new ArrayList<>();
         for (File f : untracked) {
             untrackedFile.add(getFileRelativeToCWD(f));
@@ -578,8 +1073,8 @@ public class Repository {
     }
 
     /** Returns the name of current branch */
-    private static String getCurrentBranch() {
-        File head = new File(readContentsAsString(GITLET_HEAD_FILE));
+    private String getCurrentBranch() {
+        File head = new File(readContentsAsString(headFile));
         return head.getName();
     }
 
@@ -588,9 +1083,14 @@ public class Repository {
      * overwriting the version of the file that’s already there if there is one.
      * The new version of the file is not staged.
      * */
-    public static void checkoutFileToHeadCommit(String filename) throws IOException {
-        String commitID = getCurrentHeadCommitID();
-        checkoutFileToCommit(filename, commitID);
+    public void checkoutFileToHeadCommit(String filename) throws IOException {
+        lock.writeLock().lock();
+        try {
+            ObjectId commitID = getCurrentHeadCommitID();
+            checkoutFileToCommit(filename, commitID);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -599,56 +1099,63 @@ public class Repository {
      * that’s already there if there is one.
      * The new version of the file is not staged.
      * */
-    public static void checkoutFileToCommit(String filename, String commitID) throws IOException {
-        // possibly need to get the full ID
-        if (commitID.length() < 40) {
-            commitID = getFullID(commitID);
+    public void checkoutFileToCommit(String filename, String commitID) throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkoutFileToCommit(filename, getFullID(commitID));
+        } finally {
+            lock.writeLock().unlock();
         }
+    }
+
+    /**
+     * Takes the version of the file as it exists in the commit with the given id,
+     * and puts it in the working directory, overwriting the version of the file
+     * that’s already there if there is one.
+     * The new version of the file is not staged.
+     * */
+    private void checkoutFileToCommit(String filename, ObjectId commitID) throws IOException {
         // read commit object
         if (!isFileInObjects(commitID)) {
             exit("No commit with that id exists.");
         }
 
         // from commit tree get the file
-        File file = relativeSimplePath(join(CWD, filename));
-        FileTree fileTree = readCommitObjectByID(commitID).getFileTree();
+        File file = relativeSimplePath(resolve(filename));
+        FileTree fileTree = getFileTree(readCommitObjectByID(commitID));
         checkoutFileFromFileTree(file, fileTree);
     }
 
     /**
      * Writes the file content in fileTree to the specified file.
-     * @param file Relative path to WORK_DIR.
+     * @param file Relative path to workDir.
      * @param fileTree FileTree object.
      * */
-    private static void checkoutFileFromFileTree(File file, FileTree fileTree) {
+    private void checkoutFileFromFileTree(File file, FileTree fileTree) {
         if (!fileTree.contains(file)) {
             exit("File does not exist in that commit.");
         }
-        String FileID = fileTree.getHashFromFile(file);
-        File commitedFile = getFileInObjectsByID(FileID);
-        // write the file
-        writeContentsInBytes(commitedFile, getAbsoluteFileFromWorkDir(file));
+        checkoutFiles(Map.of(file, fileTree.getHashFromFile(file)));
     }
 
-    /** Returns the full hash value based on the first few characters. */
-    private static String getFullID(String shortID) {
-        File folder = join(GITLET_OBJECTS_DIR, shortID.substring(0, 2));
-        if (!folder.isDirectory()) {
-            exit("No commit with that id exists.");
-        }
-        String target = shortID.substring(2);
-        String full = "";
-        int cnt = 0;
-        List<String> ids = plainFilenamesIn(folder);
-        assert ids != null;
-        for (String id : ids) {
-            if (id.startsWith(target)) {
-                cnt += 1;
-                full = id;
-            }
+    /**
+     * Writes blobs into files in the working directory, in parallel by {@link #workTreeWriter}.
+     *
+     * @param files Map from path relative to workDir to the hash value of its blob.
+     * */
+    private void checkoutFiles(Map<File, ObjectId> files) {
+        workTreeWriter.write(files);
+    }
+
+    /** Returns the full hash value based on the first few characters, or all of them. */
+    private ObjectId getFullID(String shortID) {
+        if (ObjectId.isId(shortID)) {
+            return ObjectId.fromString(shortID);
         }
+        List<ObjectId> ids = objectStore.findByPrefix(shortID);
+        int cnt = ids.size();
         if (cnt == 1) {
-            return shortID.substring(0, 2) + full;
+            return ids.get(0);
         } else if (cnt > 1) {
             exit("Find multiple commits with the given ID.");
         } else {
@@ -668,61 +1175,71 @@ public class Repository {
      * in the checked-out branch are deleted.
      * The staging area is cleared, unless the checked-out branch is the current branch.
      * */
-    public static void checkoutBranch(String branchName) throws IOException {
-        // check if branchName exists
-        File newHeadFile = getBranchHeadFile(branchName);
-        if (!newHeadFile.isFile()) {
-            exit("No such branch exists.");
-        }
-        String currentBranch = getCurrentBranch();
-        if (currentBranch.equals(branchName)) {
-            exit("No need to checkout the current branch.");
-        }
-        String newHeadCommitID = readContentsAsString(newHeadFile);
+    public void checkoutBranch(String branchName) throws IOException {
+        lock.writeLock().lock();
+        try {
+            // check if branchName exists
+            File newHeadFile = getBranchHeadFile(branchName);
+            if (!newHeadFile.isFile()) {
+                exit("No such branch exists.");
+            }
+            String oldHead = readContentsAsString(headFile);
+            String currentBranch = getCurrentBranch();
+            if (currentBranch.equals(branchName)) {
+                exit("No need to checkout the current branch.");
+            }
+            ObjectId newHeadCommitID = readRef(newHeadFile);
 
-        // modify files
-        // reset staging area because the checked-out branch is not the current branch
-        resetToCommitBasic(newHeadCommitID, true);
+            // modify files
+            // reset staging area because the checked-out branch is not the current branch
+            resetToCommitBasic(newHeadCommitID, true);
 
-        // switch branch
-        writeHEADFile(branchName);
+            // switch branch
+            writeHEADFile(oldHead, branchName);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
      * Checks out all the files tracked by the given commit.
      * Removes tracked files that are not present in that commit.
+     * Only files that differ between the current tree and the new tree are deleted or written.
      * */
-    private static void resetToCommitBasic(String commitID) {
-        FileTree treeCurrent = readCurrentHeadCommitObject().getFileTree();
-        FileTree treeNew = readCommitObjectByID(commitID).getFileTree();
+    private void resetToCommitBasic(ObjectId commitID) {
+        ObjectId treeCurrent = readCurrentHeadCommitObject().getTreeHashValue();
+        ObjectId treeNew = readCommitObjectByID(commitID).getTreeHashValue();
+        TreeDiff diff = new TreeDiff(this, treeCurrent, treeNew);
+
+        // check if there is untracked files that will be overwritten or deleted,
+        // tracked files are only hashed if their stat data changed
+        FileTree currentFiles = treeCurrent == null ? new FileTree() : readFileTree(treeCurrent);
+        Set<File> files = new HashSet<>(currentFiles.getFileSet());
+        files.addAll(diff.getAfter().getFileSet());
+        Map<File, ObjectId> workHashes = new HashMap<>();
+        if (isFileInTheWay(files, currentFiles, workHashes)) {
+            exit("There is an untracked file in the way; delete it, or add and commit it first.");
+        }
 
-        // check if there is untracked files that will be overwritten or deleted
-        for (File file : treeNew.getFileSet()) {
-            if (isFileInTheWay(file, treeCurrent)) {
-                exit("There is an untracked file in the way; delete it, or add and commit it first.");
+        // delete tracked files that are not in the new tree
+        for (File file : diff.getBefore().getFileSet()) {
+            if (!diff.getAfter().contains(file)) {
+                getAbsoluteFileFromWorkDir(file).delete();
             }
         }
-        for (File file : treeCurrent.getFileSet()) {
-            if (isFileInTheWay(file, treeCurrent)) {
-                exit("There is an untracked file in the way; delete it, or add and commit it first.");
+        // write files that are new or changed, and files that are the same in both trees
+        // but were deleted or modified in the working directory
+        Map<File, ObjectId> filesToWrite = new HashMap<>(diff.getAfter().getStage());
+        for (File file : currentFiles.getFileSet()) {
+            ObjectId hashValue = currentFiles.getHashFromFile(file);
+            if (!diff.getBefore().contains(file) && !hashValue.equals(workHashes.get(file))) {
+                filesToWrite.put(file, hashValue);
             }
         }
-
-        // delete tracked files in current branch head
-        for (File file : treeCurrent.getFileSet()) {
-            getAbsoluteFileFromWorkDir(file).delete();
-        }
-        // write tracked files in new branch head
-        for (File file : treeNew.getFileSet()) {
-            File fileToAdd = getAbsoluteFileFromWorkDir(file);
-            String FileID = treeNew.getHashFromFile(file);
-            File trackedFile = getFileInObjectsByID(FileID);
-            // write the file
-            writeContentsInBytes(trackedFile, fileToAdd);
-        }
+        checkoutFiles(filesToWrite);
     }
 
-    private static void resetToCommitBasic(String commitID, boolean resetStage) {
+    private void resetToCommitBasic(ObjectId commitID, boolean resetStage) {
         resetToCommitBasic(commitID);
         if (resetStage) {
             resetStage();
@@ -735,24 +1252,36 @@ public class Repository {
      * This command does NOT immediately switch to the newly created branch (just as in real Git).
      * Before you ever call branch, your code should be running with a default branch called "master".
      * */
-    public static void addBranch(String branchName) {
-        // check if branchName exists
-        File newBranchHead = getBranchHeadFile(branchName);
-        if (newBranchHead.isFile()) {
-            exit("A branch with that name already exists.");
-        }
+    public void addBranch(String branchName) {
+        lock.writeLock().lock();
+        try {
+            // check if branchName exists
+            File newBranchHead = getBranchHeadFile(branchName);
+            if (newBranchHead.isFile()) {
+                exit("A branch with that name already exists.");
+            }
+            if (RefLock.isLockFile(branchName)) {
+                exit("A branch name can't end with %s.", RefLock.LOCK_SUFFIX);
+            }
 
-        // the new branch shares the same hash code with the last commit
-        File currentHead = getCurrentHeadFile();
-        writeContents(newBranchHead, readContentsAsString(currentHead));
-//        System.out.printf("Add new branch head: %s\n", readContentsAsString(newBranchHead));  // debug
+            // the new branch shares the same hash code with the last commit
+            File currentHead = getCurrentHeadFile();
+            RefLock.compareAndSet(newBranchHead, null, readContentsAsString(currentHead));
+    //        System.out.printf("Add new branch head: %s\n", readContentsAsString(newBranchHead));  // debug
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
-    /** Writes into .gitlet/HEAD the path to a branch head according to the specified branchName. */
-    private static void writeHEADFile(String branchName) throws IOException {
-        File branchHeadRelativePath = relativeSimplePath(GITLET_DIR,
+    /**
+     * Writes into .gitlet/HEAD the path to a branch head according to the specified branchName.
+     *
+     * @param oldHead The content of .gitlet/HEAD when the command started, see {@link RefLock}.
+     * */
+    private void writeHEADFile(String oldHead, String branchName) throws IOException {
+        File branchHeadRelativePath = relativeSimplePath(gitletDir,
                 getBranchHeadFile(branchName));
-        writeContents(GITLET_HEAD_FILE, branchHeadRelativePath.toString());
+        RefLock.compareAndSet(headFile, oldHead, branchHeadRelativePath.toString());
     }
 
     /**
@@ -760,19 +1289,24 @@ public class Repository {
      * This only means to delete the pointer associated with the branch;
      * it does not mean to delete all commits that were created under the branch, or anything like that.
      * */
-    public static void removeBranch(String branchName) {
-        // check if on that branch
-        if (getCurrentBranch().equals(branchName)) {
-            exit("Cannot remove the current branch.");
-        }
-        // check if branchName exists
-        File branchHead = getBranchHeadFile(branchName);
-        if (!branchHead.isFile()) {
-            exit("A branch with that name does not exist.");
-        }
+    public void removeBranch(String branchName) {
+        lock.writeLock().lock();
+        try {
+            // check if on that branch
+            if (getCurrentBranch().equals(branchName)) {
+                exit("Cannot remove the current branch.");
+            }
+            // check if branchName exists
+            File branchHead = getBranchHeadFile(branchName);
+            if (!branchHead.isFile()) {
+                exit("A branch with that name does not exist.");
+            }
 
-        // delete the branch head
-        branchHead.delete();
+            // delete the branch head
+            RefLock.delete(branchHead);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -780,209 +1314,213 @@ public class Repository {
      * Removes tracked files that are not present in that commit.
      * Also moves the current branch’s head to that commit node.
      * */
-    public static void resetToCommit(String commitID) {
-        // possibly need to get the full ID
-        if (commitID.length() < 40) {
-            commitID = getFullID(commitID);
+    public void resetToCommit(String shortID) {
+        lock.writeLock().lock();
+        try {
+            // possibly need to get the full ID
+            ObjectId commitID = getFullID(shortID);
+            if (!isFileInObjects(commitID)) {
+                exit("No commit with that id exists.");
+            }
+            ObjectId headID = getCurrentHeadCommitID();
+            resetToCommitBasic(commitID);
+            resetStage();
+            // update head commit ID
+            moveCurrentHead(headID, commitID);
+        } finally {
+            lock.writeLock().unlock();
         }
-        resetToCommitBasic(commitID);
-        resetStage();
-        // update head commit ID
-        writeContents(getCurrentHeadFile(), commitID);
     }
 
     /** Merges files from the given branch into the current branch. */
-    public static void mergeBranch(String branchName) {
-        String currentBranchName = getCurrentBranch();
-
-        // failure cases
-        if (!readStageObject().isEmpty()) {
-            exit("You have uncommitted changes.");
-        }
-        if (!getBranchHeadFile(branchName).isFile()) {
-            exit("A branch with that name does not exist.");
-        }
-        if (currentBranchName.equals(branchName)) {
-            exit("Cannot merge a branch with itself.");
-        }
+    public void mergeBranch(String branchName) {
+        lock.writeLock().lock();
+        try {
+            String currentBranchName = getCurrentBranch();
+
+            // failure cases
+            if (!readStageObject().isEmpty()) {
+                exit("You have uncommitted changes.");
+            }
+            if (!getBranchHeadFile(branchName).isFile()) {
+                exit("A branch with that name does not exist.");
+            }
+            if (currentBranchName.equals(branchName)) {
+                exit("Cannot merge a branch with itself.");
+            }
 
-        // split point
-        String headID = getCurrentHeadCommitID();
-        String otherID = getBranchHeadHashValue(branchName);
-        String splitPointID = getSplitPointID(headID, otherID);
-        if (splitPointID.equals(otherID)) {
-            exit("Given branch is an ancestor of the current branch.");
-        }
-        if (splitPointID.equals(headID)) {
-            // checkout, branch remains the same
-            resetToCommitBasic(otherID, true);
-            // HEAD points at other
-            writeContents(getCurrentHeadFile(), otherID);
-            exit("Current branch fast-forwarded.");
-        }
+            // split point
+            ObjectId headID = getCurrentHeadCommitID();
+            ObjectId otherID = getBranchHeadHashValue(branchName);
+            ObjectId splitPointID = getSplitPointID(headID, otherID);
+            if (splitPointID.equals(otherID)) {
+                exit("Given branch is an ancestor of the current branch.");
+            }
+            if (splitPointID.equals(headID)) {
+                // checkout, branch remains the same
+                resetToCommitBasic(otherID, true);
+                // HEAD points at other
+                moveCurrentHead(headID, otherID);
+                // the merge succeeded, unlike the cases that end with exit
+                message("Current branch fast-forwarded.");
+                return;
+            }
 
-        // file set
-        FileTree splitPoint = readCommitObjectByID(splitPointID).getFileTree();
-        FileTree head = readCommitObjectByID(headID).getFileTree();
-        FileTree other = readCommitObjectByID(otherID).getFileTree();
+            // file set
+            FileTree splitPoint = getFileTree(readCommitObjectByID(splitPointID));
+            FileTree head = getFileTree(readCommitObjectByID(headID));
+            FileTree other = getFileTree(readCommitObjectByID(otherID));
 
-        Set<File> files = new TreeSet<>();
-        files.addAll(splitPoint.getFileSet());
-        files.addAll(head.getFileSet());
-        files.addAll(other.getFileSet());
+            Set<File> files = new TreeSet<>();
+            files.addAll(splitPoint.getFileSet());
+            files.addAll(head.getFileSet());
+            files.addAll(other.getFileSet());
 
-        // merge condition
-        Map<File, Integer> fileToMergeID = mergeCondition(files, splitPoint, head, other);
+            // merge condition
+            Map<File, Integer> fileToMergeID = mergeCondition(files, splitPoint, head, other);
 
-        // check if there is an untracked file in the way
-        boolean fileInTheWay = isFileInTheWay(fileToMergeID);
-        if (fileInTheWay) {
-            exit("There is an untracked file in the way; delete it, or add and commit it first.");
-        }
+            // check if there is an untracked file in the way
+            boolean fileInTheWay = isFileInTheWay(fileToMergeID);
+            if (fileInTheWay) {
+                exit("There is an untracked file in the way; delete it, or add and commit it first.");
+            }
 
-        // merge
-        boolean existConflict = mergeFile(fileToMergeID, head, other);
+            // merge
+            boolean existConflict = mergeFile(fileToMergeID, head, other);
 
-        // commit
-        commit(String.format("Merged %s into %s.", branchName, currentBranchName), otherID);
-        if (existConflict) {
-            System.out.println("Encountered a merge conflict.");
+            // commit
+            commit(String.format("Merged %s into %s.", branchName, currentBranchName), otherID);
+            if (existConflict) {
+                System.out.println("Encountered a merge conflict.");
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
     /** Returns {@code true} if at least one file is in the way. */
-    private static boolean isFileInTheWay(Map<File, Integer> fileToMergeID) {
-        FileTree fileTree = readCurrentHeadCommitObject().getFileTree();
+    private boolean isFileInTheWay(Map<File, Integer> fileToMergeID) {
+        FileTree fileTree = getFileTree(readCurrentHeadCommitObject());
+        List<File> files = new ArrayList<>();
         for (File f : fileToMergeID.keySet()) {
             int mergeID = fileToMergeID.get(f);
             switch (mergeID) {
-                case 1, 5, 6, 8 -> {
-                    if (isFileInTheWay(f, fileTree)) {
-                        return true;
-                    }
-                }
+                case 1, 5, 6, 8 -> files.add(f);
             }
         }
-        return false;
+        return isFileInTheWay(files, fileTree, new HashMap<>());
     }
 
     /**
-     * Returns {@code true} if {@code file} exists in working directory, and
-     * {@code file} is not in {@code fileTree} or
-     * {@code file} is in {@code fileTree} but the hash value doesn't match.
+     * Returns {@code true} if at least one of {@code files} exists in working directory, and
+     * it is not in {@code fileTree} or
+     * it is in {@code fileTree} but the hash value doesn't match.
+     * The files in {@code fileTree} are hashed in parallel.
+     *
+     * @param workHashes Where the hash codes of the files in {@code fileTree} that exist in working directory
+     *                   are put, complete only if no file is in the way.
      * */
-    private static boolean isFileInTheWay(File file, FileTree fileTree) {
-        File abs = getAbsoluteFileFromWorkDir(file);
-        if (!abs.exists()) {
-            // if file doesn't even exist, the rewrite or delete won't matter
-            return false;
+    private boolean isFileInTheWay(Collection<File> files, FileTree fileTree, Map<File, ObjectId> workHashes) {
+        List<File> tracked = new ArrayList<>();
+        for (File file : files) {
+            if (fileTree.contains(file)) {
+                tracked.add(file);
+            } else if (getAbsoluteFileFromWorkDir(file).exists()) {
+                // untracked file exists in the directory
+                return true;
+            }
         }
-        // file exists in the directory
-        return !fileTree.contains(file) || !isFileInTree(file, fileTree);
-    }
-
-    /** Returns {@code true} if {@code file} is in {@code fileTree} and the hash value matches. */
-    private static boolean isFileInTree(File file, FileTree fileTree) {
-        String hashValue = sha1OfFile(getAbsoluteFileFromWorkDir(file));
-        return isFileInTree(file, hashValue, fileTree);
+        // if file doesn't even exist, the rewrite or delete won't matter
+        workHashes.putAll(hashWorkFiles(tracked));
+        for (Map.Entry<File, ObjectId> e : workHashes.entrySet()) {
+            if (!isFileInTree(e.getKey(), e.getValue(), fileTree)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /** Returns {@code true} if {@code file} is in {@code fileTree} and the {@code hashValue} matches. */
-    private static boolean isFileInTree(File file, String hashValue, FileTree fileTree) {
+    private static boolean isFileInTree(File file, ObjectId hashValue, FileTree fileTree) {
         return fileTree.contains(file) && fileTree.getHashFromFile(file).equals(hashValue);
     }
 
-    /** Returns the commit object that is the head of the specified branch. */
-    private static Commit readBranchHeadCommit(String branchName) {
-        String hashValue = getBranchHeadHashValue(branchName);
-        return readCommitObjectByID(hashValue);
-    }
-
     /** Returns the hash value of the commit object that is the head of the specified branch. */
-    private static String getBranchHeadHashValue(String branchName) {
-        return readContentsAsString(getBranchHeadFile(branchName));
+    private ObjectId getBranchHeadHashValue(String branchName) {
+        return readRef(getBranchHeadFile(branchName));
     }
 
     /** Returns the file in .gitlet/refs/heads of the specified branchName. */
-    private static File getBranchHeadFile(String branchName) {
-        return join(GITLET_HEADS_DIR, branchName);
-    }
-
-    /** Returns the split point hash value of HEAD and other branch. */
-    private static String getSplitPointID(String headID, String otherID) {
-        Set<String> idSet = new TreeSet<>();
-        String splitPointID = "";
-        Commit head = readCommitObjectByID(headID);
-        Commit other = readCommitObjectByID(otherID);
-        while (head != null || other != null) {
-            if (head != null) {
-                if (!idSet.add(headID)) {
-                    splitPointID = headID;
-                    break;
-                }
-                headID = head.getParentHashValue();
-                head = head.getParentCommit();
-            }
+    private File getBranchHeadFile(String branchName) {
+        return join(headsDir, branchName);
+    }
 
-            if (other != null) {
-                if (!idSet.add(otherID)) {
-                    splitPointID = otherID;
-                    break;
-                }
-                otherID = other.getParentHashValue();
-                other = other.getParentCommit();
-            }
+    /**
+     * Returns the split point hash value of HEAD and other branch,
+     * i.e., their latest common ancestor, following merge parents as well.
+     * Exits if the histories are unrelated, e.g., a branch fetched from a repository with another initial commit.
+     * */
+    private ObjectId getSplitPointID(ObjectId headID, ObjectId otherID) {
+        ObjectId splitPointID = commitGraph.mergeBase(headID, otherID);
+        commitGraph.save();
+        if (splitPointID == null) {
+            exit("Given branch has no common ancestor with the current branch.");
         }
-
         return splitPointID;
     }
 
-    /** Merges files. */
-    private static boolean mergeFile(Map<File, Integer> fileToMergeID, FileTree head, FileTree other) {
+    /** Returns {@code true} if {@code ancestorID} is {@code commitID} or one of its ancestors. */
+    private boolean isAncestor(ObjectId ancestorID, ObjectId commitID) {
+        boolean isAncestor = commitGraph.isAncestor(ancestorID, commitID);
+        commitGraph.save();
+        return isAncestor;
+    }
+
+    /**
+     * Merges files based on their merge IDs.
+     * Files taken from {@code other} are checked out together, and all files to stage are added together.
+     * */
+    private boolean mergeFile(Map<File, Integer> fileToMergeID, FileTree head, FileTree other) {
         boolean existConflict = false;
-        for (File f : fileToMergeID.keySet()) {
-            int mergeID = fileToMergeID.get(f);
-            if (mergeID == 8) {
-                existConflict = true;
+        Map<File, ObjectId> filesToCheckout = new HashMap<>();
+        List<File> filesToAdd = new ArrayList<>();
+        for (File file : fileToMergeID.keySet()) {
+            switch (fileToMergeID.get(file)) {
+                case 1, 5 -> {
+                    // Should be checked out and staged.
+                    filesToCheckout.put(file, other.getHashFromFile(file));
+                    filesToAdd.add(file);
+                }
+                case 6 -> {
+                    // Should be removed and untracked.
+                    removeFile(file);
+                }
+                case 8 -> {
+                    // Replace the contents of the conflicted file and stage the result.
+                    // Treat a deleted file in a branch as an empty file.
+                    existConflict = true;
+                    String content = getConflictConcatenation(file, head, other);
+                    writeContents(getAbsoluteFileFromWorkDir(file), content);
+                    filesToAdd.add(file);
+                }
             }
-            mergeFile(f, mergeID, head, other);
         }
+        checkoutFiles(filesToCheckout);
+        addFiles(filesToAdd);
 
         return existConflict;
     }
 
-    /** Merges a single file based on {@code mergeID} */
-    private static void mergeFile(File file, int mergeID, FileTree head, FileTree other) {
-        switch (mergeID) {
-            case 1, 5 -> {
-                // Should be checked out and staged.
-                checkoutFileFromFileTree(file, other);
-                addFile(file);
-            }
-            case 6 -> {
-                // Should be removed and untracked.
-                removeFile(file);
-            }
-            case 8 -> {
-                // Replace the contents of the conflicted file and stage the result.
-                // Treat a deleted file in a branch as an empty file.
-                String content = getConflictConcatenation(file, head, other);
-                writeContents(getAbsoluteFileFromWorkDir(file), content);
-                addFile(file);
-            }
-        }
-    }
-
     /** Returns the concatenated content of two conflict files */
-    private static String getConflictConcatenation(File file, FileTree head, FileTree other) {
+    private String getConflictConcatenation(File file, FileTree head, FileTree other) {
         StringBuilder sb = new StringBuilder();
         String headContent = "";
         String otherContent = "";
         if (head.contains(file)) {
-            headContent = readContentsAsString(getFileInObjectsByID(head.getHashFromFile(file)));
+            headContent = new String(readContentsFromObjectsByID(head.getHashFromFile(file)), StandardCharsets.UTF_8);
         }
         if (other.contains(file)) {
-            otherContent = readContentsAsString(getFileInObjectsByID(other.getHashFromFile(file)));
+            otherContent = new String(readContentsFromObjectsByID(other.getHashFromFile(file)), StandardCharsets.UTF_8);
         }
         sb.append("<<<<<<< HEAD\n");
         sb.append(headContent);
@@ -1007,11 +1545,11 @@ public class Repository {
     /** Returns mergeID pair for each file. */
     private static int mergeCondition(File file, FileTree splitPoint, FileTree head, FileTree other) {
         // hash value of file in different commits
-        // hash value is "" if the file doesn't exist in that commit.
-        String empty = "";
-        String hashSplitPoint = splitPoint.getHashFromFileOrDefault(file, empty);
-        String hashHead = head.getHashFromFileOrDefault(file, empty);
-        String hashOther = other.getHashFromFileOrDefault(file, empty);
+        // hash value is ZERO if the file doesn't exist in that commit.
+        ObjectId empty = ObjectId.ZERO;
+        ObjectId hashSplitPoint = splitPoint.getHashFromFileOrDefault(file, empty);
+        ObjectId hashHead = head.getHashFromFileOrDefault(file, empty);
+        ObjectId hashOther = other.getHashFromFileOrDefault(file, empty);
 
         int cond = 0;
         // file exists in at least one commit
@@ -1072,7 +1610,7 @@ public class Repository {
     /**
      * Saves the given login information under the given remote name.
      * <ul>
-     * <li>GITLET_REMOTES_DIR</li>
+     * <li>remotesDir</li>
      *      <ul><li>name1</li>
      *          <ul><li>master</li></ul></ul>
      *      <ul><li>name2</li>
@@ -1081,16 +1619,21 @@ public class Repository {
      * @param name Remote name.
      * @param path Path to .gitlet.
      * */
-    public static void addRemote(String name, String path) throws IOException {
-        File remoteFolder = join(GITLET_REMOTES_DIR, name);
-        if (remoteFolder.exists()) {
-            exit("A remote with that name already exists.");
-        } else {
-            remoteFolder.mkdirs();
+    public void addRemote(String name, String path) throws IOException {
+        lock.writeLock().lock();
+        try {
+            File remoteFolder = join(remotesDir, name);
+            if (remoteFolder.exists()) {
+                exit("A remote with that name already exists.");
+            } else {
+                remoteFolder.mkdirs();
+            }
+            File pathFile = join(remotePathsDir, name);
+            File absPath = resolve(path).getCanonicalFile();
+            writeContents(pathFile, absPath.toString());
+        } finally {
+            lock.writeLock().unlock();
         }
-        File pathFile = join(GITLET_REMOTE_PATHS_DIR, name);
-        File absPath = join(CWD, path).getCanonicalFile();
-        writeContents(pathFile, absPath.toString());
     }
 
     /**
@@ -1099,14 +1642,19 @@ public class Repository {
      *
      * @param name Remote name to delete.
      * */
-    public static void removeRemote(String name) throws IOException {
-        File remoteFolder = join(GITLET_REMOTES_DIR, name);
-        File pathFile = join(GITLET_REMOTE_PATHS_DIR, name);
-        if (remoteFolder.isDirectory()) {
-            Utils.deleteDir(remoteFolder);
-            pathFile.delete();
-        } else {
-            exit("A remote with that name does not exist.");
+    public void removeRemote(String name) throws IOException {
+        lock.writeLock().lock();
+        try {
+            File remoteFolder = join(remotesDir, name);
+            File pathFile = join(remotePathsDir, name);
+            if (remoteFolder.isDirectory()) {
+                Utils.deleteDir(remoteFolder);
+                pathFile.delete();
+            } else {
+                exit("A remote with that name does not exist.");
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -1118,111 +1666,146 @@ public class Repository {
      * @param remote Remote name.
      * @param remoteBranch Remote branch name.
      * */
-    public static void pushRemote(String remote, String remoteBranch) throws IOException {
-        // remote branch
-        File remoteGit = checkRemoteExist(remote);
-
-        File remoteBranchFile = join(remoteGit, relativeSimplePath(GITLET_DIR, GITLET_HEADS_DIR).toString(),
-                remoteBranch);
-        File currentHead = getCurrentHeadFile();
-
-        // check if ahead
-        String headID = readContentsAsString(currentHead);
-        String remoteHeadID = "";
-        if (remoteBranchFile.exists()) {
-            remoteHeadID = readContentsAsString(remoteBranchFile);
-            if (!isFileInObjects(remoteHeadID) || !getSplitPointID(headID, remoteHeadID).equals(remoteHeadID)) {
-                exit("Please pull down remote changes before pushing.");
+    public void pushRemote(String remote, String remoteBranch) throws IOException {
+        lock.writeLock().lock();
+        try {
+            // remote branch
+            File remoteGit = checkRemoteExist(remote);
+
+            File remoteBranchFile = join(remoteGit, relativeSimplePath(gitletDir, headsDir).toString(),
+                    remoteBranch);
+            File currentHead = getCurrentHeadFile();
+
+            // check if ahead
+            ObjectId headID = readRef(currentHead);
+            ObjectId remoteHeadID = null;
+            if (remoteBranchFile.exists()) {
+                remoteHeadID = readRef(remoteBranchFile);
+                if (!isFileInObjects(remoteHeadID) || !isAncestor(remoteHeadID, headID)) {
+                    exit("Please pull down remote changes before pushing.");
+                }
             }
-        }
 
-        // copy blobs
-        File remoteObjectDir = join(remoteGit, relativeSimplePath(GITLET_DIR, GITLET_OBJECTS_DIR));
-        Commit commit = readCurrentHeadCommitObject();
-        copyCommits(commit, headID, GITLET_OBJECTS_DIR, remoteObjectDir);
+            // copy blobs
+            ObjectStore remoteObjects = openObjectStore(remoteGit, new Config(join(remoteGit, "config")));
+            copyCommits(headID, objectStore, remoteObjects);
 
-        // update remote file?
+            // update remote file?
 
-        // update hash
-        writeContents(remoteBranchFile, headID);
-        writeContents(join(GITLET_REMOTES_DIR, remote, remoteBranch), headID);
+            // update hash, unless another push moved the remote branch meanwhile
+            RefLock.compareAndSet(remoteBranchFile, remoteHeadID == null ? null : remoteHeadID.name(), headID.name());
+            RefLock.set(join(remotesDir, remote, remoteBranch), headID.name());
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
-     * Copies to specified directory the commit history including corresponding file tree and file blobs backwards
-     * since a commit object .
+     * Copies to specified object store the commit history including corresponding file tree and file blobs
+     * backwards since a commit object, following both parents of merge commits.
+     * The commits are read from {@code src}, since they may not exist in the local repository yet.
+     * The walk stops at commits that already exist in {@code target}, whose history is there as well.
      *
-     * @param commit The commit object to start with.
-     * @param hashID Hash value of the commit.
-     * @param src Source objects directory.
-     * @param target Target objects directory.
+     * @param hashID Hash value of the commit to start with.
+     * @param src Source object store.
+     * @param target Target object store.
      * */
-    private static void copyCommits(Commit commit, String hashID, File src, File target) throws IOException {
-        for (Commit c : commit.traverseBack()) {
-            if (!copyCommit(c, hashID, src, target)) {
-                break;
+    private static void copyCommits(ObjectId hashID, ObjectStore src, ObjectStore target) {
+        Set<ObjectId> visited = new HashSet<>();
+        Deque<ObjectId> toVisit = new ArrayDeque<>();
+        toVisit.push(hashID);
+        while (!toVisit.isEmpty()) {
+            ObjectId id = toVisit.pop();
+            if (!visited.add(id) || target.contains(id)) {
+                continue;
+            }
+            Commit c = ObjectCodec.decode(src.read(id), Commit.class);
+            copyCommit(c, id, src, target);
+            if (c.getSecondParentHashValue() != null) {
+                toVisit.push(c.getSecondParentHashValue());
+            }
+            if (c.getParentHashValue() != null) {
+                toVisit.push(c.getParentHashValue());
             }
-            hashID = c.getParentHashValue();
         }
     }
 
     /**
-     * Copies a commit object and its corresponding file tree and file blobs to specified directory.
-     * Returns {@code true} if the commit does not exist in the specified directory.
+     * Copies a commit object and its corresponding file tree and file blobs to specified object store.
+     * Returns {@code true} if the commit does not exist in the specified object store.
      *
      * @param c The commit object.
      * @param hashID Hash value of the commit.
-     * @param src Source objects directory.
-     * @param target Target objects directory.
-     * @return Returns {@code true} if the commit does not exist in the specified directory.
+     * @param src Source object store.
+     * @param target Target object store.
+     * @return Returns {@code true} if the commit does not exist in the specified object store.
      * */
-    private static boolean copyCommit(Commit c, String hashID, File src, File target) throws IOException {
+    private static boolean copyCommit(Commit c, ObjectId hashID, ObjectStore src, ObjectStore target) {
         // copy c
-        if (!copyFileByHashID(hashID, src, target)) {
+        if (!copyObjectByHashID(hashID, src, target)) {
             return false;
         }
-        // copy file tree
-        copyFileByHashID(c.getTreeHashValue(), src, target);
-        // copy files
-        for (String hash : c.getFileTreeMap().values()) {
-            copyFileByHashID(hash, src, target);
-        }
+        // copy file tree and files
+        copyTree(c.getTreeHashValue(), src, target);
         return true;
     }
 
     /**
-     * Copies a single blob to specified directory.
-     * Returns {@code true} if either {@code hashID} is empty or the file does not exist in the specified directory.
-     * Returns {@code false} if the file exists in the specified directory.
+     * Copies a tree object, and the subtrees and file blobs it refers to, to specified object store.
+     * A tree is copied after its content, so a tree that already exists
+     * in the specified store is skipped along with everything under it.
      *
-     * @param hashID Hash value of an object.
-     * @param src Source objects directory.
-     * @param target Target objects directory.
-     * @return Returns {@code true} if either {@code hashID} is empty or the file does not exist in the specified directory.
-     * Returns {@code false} if the file exists in the specified directory.
+     * @param treeID Hash value of the tree, null if there is none.
+     * @param src Source object store.
+     * @param target Target object store.
      * */
-    private static boolean copyFileByHashID(String hashID, File src, File target) throws IOException {
-        if (hashID.isEmpty()) {
-            return true;
+    private static void copyTree(ObjectId treeID, ObjectStore src, ObjectStore target) {
+        if (treeID == null || target.contains(treeID)) {
+            return;
+        }
+        Dumpable tree = ObjectCodec.decode(src.read(treeID), Dumpable.class);
+        if (tree instanceof FileTree) {
+            for (ObjectId hash : ((FileTree) tree).getStage().values()) {
+                copyObjectByHashID(hash, src, target);
+            }
+        } else {
+            DirectoryTree directory = (DirectoryTree) tree;
+            for (ObjectId hash : directory.getFiles().values()) {
+                copyObjectByHashID(hash, src, target);
+            }
+            for (ObjectId subtreeID : directory.getDirectories().values()) {
+                copyTree(subtreeID, src, target);
+            }
         }
-        File relFile = getRelFileInObjectsByID(hashID);
-        File targetFile = join(target, relFile);
-        if (!targetFile.exists()) {
-            targetFile.getParentFile().mkdirs();
-            Files.copy(join(src, relFile).toPath(), targetFile.toPath());
+        copyObjectByHashID(treeID, src, target);
+    }
+
+    /**
+     * Copies a single object to specified object store.
+     * Returns {@code true} if either {@code hashID} is null or the object does not exist in the specified store.
+     * Returns {@code false} if the object exists in the specified store.
+     *
+     * @param hashID Hash value of an object.
+     * @param src Source object store.
+     * @param target Target object store.
+     * @return Returns {@code true} if either {@code hashID} is null or the object does not exist
+     * in the specified store. Returns {@code false} if the object exists in the specified store.
+     * */
+    private static boolean copyObjectByHashID(ObjectId hashID, ObjectStore src, ObjectStore target) {
+        if (hashID == null) {
             return true;
         }
-        return false;
+        return src.copyObjectTo(hashID, target);
     }
 
     /**
-     * Exits if the remote repository does not exist.
+     * Fails if the remote repository does not exist.
      *
      * @param remote Remote name
      * @return Returns path to remote .gitlet.
      * */
-    private static File checkRemoteExist(String remote) {
-        File remotePath = join(GITLET_REMOTE_PATHS_DIR, remote);
+    private File checkRemoteExist(String remote) {
+        File remotePath = join(remotePathsDir, remote);
         if (!remotePath.exists()) {
             exit("Remote directory not found.");
         }
@@ -1240,26 +1823,31 @@ public class Repository {
      * @param remote Remote name.
      * @param remoteBranch Remote branch name.
      * */
-    public static void fetchRemote(String remote, String remoteBranch) throws IOException {
-        // remote branch
-        File remoteGit = checkRemoteExist(remote);
-
-        File remoteBranchFile = join(remoteGit, relativeSimplePath(GITLET_DIR, GITLET_HEADS_DIR).toString(),
-                remoteBranch);
-        if (!remoteBranchFile.exists()) {
-            exit("That remote does not have that branch.");
-        }
+    public void fetchRemote(String remote, String remoteBranch) throws IOException {
+        lock.writeLock().lock();
+        try {
+            // remote branch
+            File remoteGit = checkRemoteExist(remote);
+
+            File remoteBranchFile = join(remoteGit, relativeSimplePath(gitletDir, headsDir).toString(),
+                    remoteBranch);
+            if (!remoteBranchFile.exists()) {
+                exit("That remote does not have that branch.");
+            }
 
-        // copy blobs
-        String headID = readContentsAsString(remoteBranchFile);
-        File remoteObjectDir = join(remoteGit, relativeSimplePath(GITLET_DIR, GITLET_OBJECTS_DIR));
-        File remoteCommitFile = join(remoteObjectDir, getRelFileInObjectsByID(headID));
-        Commit remoteCommit = readObject(remoteCommitFile, Commit.class);
-        copyCommits(remoteCommit, headID, remoteObjectDir, GITLET_OBJECTS_DIR);
+            // copy blobs
+            ObjectId headID = readRef(remoteBranchFile);
+            ObjectStore remoteObjects = openObjectStore(remoteGit, new Config(join(remoteGit, "config")));
+            copyCommits(headID, remoteObjects, objectStore);
+            messageIndex.update(headID);
+            messageIndex.save();
 
-        // update hash
-        writeContents(join(GITLET_REMOTES_DIR, remote, remoteBranch), headID);
-        writeContents(join(GITLET_HEADS_DIR, remote, remoteBranch), headID);
+            // update hash
+            RefLock.set(join(remotesDir, remote, remoteBranch), headID.name());
+            RefLock.set(join(headsDir, remote, remoteBranch), headID.name());
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -1268,8 +1856,178 @@ public class Repository {
      * @param remote Remote name.
      * @param remoteBranch Remote branch name.
      * */
-    public static void pullRemote(String remote, String remoteBranch) throws IOException {
-        fetchRemote(remote, remoteBranch);
-        mergeBranch(remote + File.separatorChar + remoteBranch);
+    public void pullRemote(String remote, String remoteBranch) throws IOException {
+        lock.writeLock().lock();
+        try {
+            fetchRemote(remote, remoteBranch);
+            mergeBranch(remote + File.separatorChar + remoteBranch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Prints the counters of this repository to standard error, enabled by -Dgitlet.stats=true. */
+    public void printStats() {
+        System.err.printf("object cache: %d hits, %d misses, %d objects, %d bytes%n",
+                objectCache.getHits(), objectCache.getMisses(), objectCache.count(), objectCache.size());
+        System.err.printf("working files: %d unchanged by stat data, %d hashed%n", statHits, statMisses);
+    }
+
+    /**
+     * Folds all loose objects in .gitlet/objects into a pack.
+     * Successive versions of a file are stored as deltas, see settings deltaDepth and deltaMaxBytes.
+     * The commits appended to the message index since it was last written are merged into it as well.
+     * */
+    public void repack() throws IOException {
+        lock.writeLock().lock();
+        try {
+            long maxDepth = config.getLong("deltaDepth", DEFAULT_DELTA_DEPTH);
+            if (maxDepth < 0 || maxDepth > Integer.MAX_VALUE) {
+                exit("Invalid value of %s in config: %s", "deltaDepth", maxDepth);
+            }
+            long maxDeltaBytes = config.getLong("deltaMaxBytes", DEFAULT_DELTA_MAX_BYTES);
+            int cnt = objectStore.repack(getFileHistories(), (int) maxDepth, maxDeltaBytes);
+            messageIndex.save(0);
+            message("Packed %d objects.", cnt);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the versions of each file in all commits, newest first as met walking back from the branch heads.
+     * A blob is only listed under the first path it is met at.
+     * */
+    private Collection<List<ObjectId>> getFileHistories() {
+        Map<File, List<ObjectId>> histories = new HashMap<>();
+        Set<ObjectId> visitedTrees = new HashSet<>();
+        Set<ObjectId> visitedBlobs = new HashSet<>();
+        for (Commit c : getAllCommits()) {
+            addFileHistories(c.getTreeHashValue(), null, visitedTrees, visitedBlobs, histories);
+        }
+        return histories.values();
+    }
+
+    /** Adds the blobs of a tree that were not met yet to the histories of their paths, skipping visited trees. */
+    private void addFileHistories(ObjectId treeID, File dir, Set<ObjectId> visitedTrees,
+                                  Set<ObjectId> visitedBlobs, Map<File, List<ObjectId>> histories) {
+        if (treeID == null || !visitedTrees.add(treeID)) {
+            return;
+        }
+        Dumpable tree = readObjectFromObjectsByID(treeID, Dumpable.class);
+        Map<File, ObjectId> files = new TreeMap<>();
+        if (tree instanceof FileTree) {
+            files.putAll(((FileTree) tree).getStage());
+        } else {
+            DirectoryTree directory = (DirectoryTree) tree;
+            for (Map.Entry<String, ObjectId> e : directory.getFiles().entrySet()) {
+                files.put(new File(dir, e.getKey()), e.getValue());
+            }
+            for (Map.Entry<String, ObjectId> e : directory.getDirectories().entrySet()) {
+                addFileHistories(e.getValue(), new File(dir, e.getKey()), visitedTrees, visitedBlobs, histories);
+            }
+        }
+        for (Map.Entry<File, ObjectId> e : files.entrySet()) {
+            if (visitedBlobs.add(e.getValue())) {
+                histories.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Converts a repository written by an older version of gitlet, whose commits, trees,
+     * and staging area are Java-serialized, to the format of {@link ObjectCodec}.
+     * Commits and trees get new hash values, so all branch heads are rewritten as well.
+     * Blobs keep their hash values, and all objects are stored compressed.
+     * */
+    public void migrate() throws IOException {
+        lock.writeLock().lock();
+        try {
+            Map<ObjectId, ObjectId> newIDs = new HashMap<>();
+            List<File> refs = new ArrayList<>();
+            for (File dir : new File[]{headsDir, remotesDir}) {
+                if (dir.isDirectory()) {
+                    try (Stream<Path> paths = Files.walk(dir.toPath())) {
+                        paths.filter(Files::isRegularFile)
+                            .filter(p -> !RefLock.isLockFile(p.getFileName().toString()))
+                            .forEach(p -> refs.add(p.toFile()));
+                    }
+                }
+            }
+            for (File ref : refs) {
+                ObjectId commitID = readRef(ref);
+                if (isFileInObjects(commitID)) {
+                    RefLock.compareAndSet(ref, commitID.name(), migrateCommit(commitID, newIDs).name());
+                }
+            }
+            writeStageObject(readStageObject());
+            objectStore.compressAll();
+
+            int cnt = 0;
+            for (Map.Entry<ObjectId, ObjectId> e : newIDs.entrySet()) {
+                if (!e.getKey().equals(e.getValue())) {
+                    cnt += 1;
+                }
+            }
+            message("Migrated %d commits.", cnt);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Converts the commit and its ancestors to the format of {@link ObjectCodec}.
+     * Parents are converted before their children, since a commit stores the hash values of its parents.
+     *
+     * @param commitID Hash value of the commit.
+     * @param newIDs Map from old to new hash values of converted commits.
+     * @return The new hash value of the commit.
+     * */
+    private ObjectId migrateCommit(ObjectId commitID, Map<ObjectId, ObjectId> newIDs) {
+        Deque<ObjectId> stack = new ArrayDeque<>();
+        stack.push(commitID);
+        while (!stack.isEmpty()) {
+            ObjectId id = stack.peek();
+            if (newIDs.containsKey(id)) {
+                stack.pop();
+                continue;
+            }
+            byte[] content = readContentsFromObjectsByID(id);
+            if (!ObjectCodec.isLegacy(content)) {
+                // already converted
+                newIDs.put(id, id);
+                stack.pop();
+                continue;
+            }
+            Commit c = deserialize(content, Commit.class);
+            ObjectId parent = c.getParentHashValue();
+            ObjectId secondParent = c.getSecondParentHashValue();
+            boolean parentsDone = true;
+            for (ObjectId p : new ObjectId[]{parent, secondParent}) {
+                if (p != null && !newIDs.containsKey(p)) {
+                    stack.push(p);
+                    parentsDone = false;
+                }
+            }
+            if (!parentsDone) {
+                continue;
+            }
+            stack.pop();
+
+            ObjectId tree = c.getTreeHashValue();
+            if (tree != null) {
+                content = readContentsFromObjectsByID(tree);
+                if (ObjectCodec.isLegacy(content)) {
+                    FileTree fileTree = deserialize(content, FileTree.class);
+                    DirectoryTree root = new DirectoryTree();
+                    updateDirectory(root, fileTree.getStage());
+                    tree = writeObjectInDir(root);
+                }
+            }
+            Commit migrated = new Commit(c.getMessage(), c.getDate(), parent == null ? null : newIDs.get(parent),
+                    secondParent == null ? null : newIDs.get(secondParent), tree);
+            newIDs.put(id, writeObjectInDir(migrated));
+        }
+        return newIDs.get(commitID);
     }
 }
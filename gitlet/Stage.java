@@ -1,25 +1,33 @@
 package gitlet;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * Represents a gitlet stage object.
  * A stage object consists of an {@link AddStage} object
  * and a {@link RemoveStage} object.
  * The staging area consists of change of files to be committed.
+ * The index also keeps the {@link FileStat} of tracked files,
+ * so that unchanged files in the working directory are not hashed again.
  *
  * @author Zichuan
  */
 public class Stage implements Serializable, Dumpable {
 
+    /** Kept so that the index written by older versions can still be read. */
+    private static final long serialVersionUID = -5398505823447302935L;
+
     /** Add staging object. */
     private final AddStage addStage;
     /** Remove staging object. */
     private final RemoveStage removeStage;
+    /** Map from file to its stat data in the working directory. Not part of the legacy format. */
+    private transient Map<File, FileStat> stats;
 
     public Stage() {
         addStage = new AddStage();
@@ -27,7 +35,7 @@ public class Stage implements Serializable, Dumpable {
     }
 
     /** Returns the add staging area object. */
-    public Map<File, String> getAddStage() {
+    public Map<File, ObjectId> getAddStage() {
         return addStage.getStage();
     }
 
@@ -42,7 +50,7 @@ public class Stage implements Serializable, Dumpable {
     }
 
     /** Add a new (file, hash value) pair into the add staging object. */
-    public void addToAddStage(File K, String V) {
+    public void addToAddStage(File K, ObjectId V) {
         addStage.put(K, V);
     }
 
@@ -66,7 +74,7 @@ public class Stage implements Serializable, Dumpable {
     }
 
     /** Returns the hash value of a file in the add staging area. */
-    public String getHashAddStage(File K) {
+    public ObjectId getHashAddStage(File K) {
         return addStage.getHashFromFile(K);
     }
 
@@ -84,6 +92,24 @@ public class Stage implements Serializable, Dumpable {
         return removeStage.contains(K);
     }
 
+    /** Returns the map from file to its stat data in the working directory. */
+    public Map<File, FileStat> getStats() {
+        if (stats == null) {
+            stats = new TreeMap<>();
+        }
+        return stats;
+    }
+
+    /** Returns the recorded stat data of a file, or null if there is none. */
+    public FileStat getStat(File K) {
+        return getStats().get(K);
+    }
+
+    /** Records the stat data of a file. */
+    public void putStat(File K, FileStat V) {
+        getStats().put(K, V);
+    }
+
     /** Returns true if the add staging area is empty. */
     public boolean isAddStageEmpty() {
         return addStage.isEmpty();
@@ -107,9 +133,14 @@ public class Stage implements Serializable, Dumpable {
         return isAddStageEmpty() && isRemoveStageEmpty();
     }
 
+    /** Prints the staged files relative to {@code base}, a path relative to the working directory. */
+    public void printRelativeTo(Path base) {
+        addStage.printRelativeTo(base);
+        removeStage.printRelativeTo(base);
+    }
+
     @Override
-    public void dump() throws IOException {
-        addStage.dump();
-        removeStage.dump();
+    public void dump() {
+        printRelativeTo(Path.of(""));
     }
 }
@@ -1,7 +1,7 @@
 package gitlet;
 
 import java.io.File;
-import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -22,12 +22,15 @@ public interface StageBasic {
     /** Check if a staging area is empty. */
     boolean isEmpty();
 
-    /** Returns the list of staged file names in lexicographic order. */
-    static List<String> toSortedList(Set<File> fileSet) throws IOException {
+    /**
+     * Returns the list of staged file names in lexicographic order.
+     *
+     * @param base The directory the names are relative to, as a path relative to the working directory.
+     * */
+    static List<String> toSortedList(Set<File> fileSet, Path base) {
         List<String> filePathList = new ArrayList<>();
         for (File file : fileSet) {
-            file = Repository.getFileRelativeToCWD(file);
-            filePathList.add(file.toString());
+            filePathList.add(base.relativize(file.toPath()).toString());
         }
         Collections.sort(filePathList);
 
@@ -45,10 +48,10 @@ public interface StageBasic {
      * Prints head at the front.
      * Prints all staged files, each in a separate line.
      * Ends with a blank line.
-     * The list of staged file names are from the specified fileSet.
+     * The list of staged file names are from the specified fileSet, relative to {@code base}.
      * */
-    default void printWithHead(String head, Set<File> fileSet) throws IOException {
-        List<String> filePathList = toSortedList(fileSet);
+    default void printWithHead(String head, Set<File> fileSet, Path base) {
+        List<String> filePathList = toSortedList(fileSet, base);
         System.out.println(head);
         print(filePathList);
         System.out.println("");
@@ -0,0 +1,121 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Represents the files that differ between two trees,
+ * i.e., files that are only in one of them or whose hash values differ.
+ * The sorted entries of both trees are walked side by side in an ordered merge-join,
+ * and a subdirectory is only read when its hash values differ,
+ * so unchanged subtrees cost nothing.
+ * A flat FileTree written by an older version is compared file by file.
+ *
+ * @author Zichuan Wang
+ */
+public class TreeDiff {
+
+    private final Repository repository;
+    /** Changed files as in the old tree, missing if the old tree doesn't contain them. */
+    private final FileTree before = new FileTree();
+    /** Changed files as in the new tree, missing if the new tree doesn't contain them. */
+    private final FileTree after = new FileTree();
+
+    /** Receives an entry of a merge-join, either value is null if the map doesn't contain the key. */
+    private interface JoinVisitor<K> {
+        void visit(K key, ObjectId oldValue, ObjectId newValue);
+    }
+
+    /**
+     * Compares two trees of a repository.
+     *
+     * @param r The repository.
+     * @param oldTreeID Hash value of the old tree, null if there is none.
+     * @param newTreeID Hash value of the new tree, null if there is none.
+     * */
+    public TreeDiff(Repository r, ObjectId oldTreeID, ObjectId newTreeID) {
+        repository = r;
+        if (Objects.equals(oldTreeID, newTreeID)) {
+            return;
+        }
+        Dumpable oldTree = readTree(oldTreeID);
+        Dumpable newTree = readTree(newTreeID);
+        if (oldTree instanceof FileTree || newTree instanceof FileTree) {
+            FileTree oldFiles = oldTreeID == null ? new FileTree() : repository.readFileTree(oldTreeID);
+            FileTree newFiles = newTreeID == null ? new FileTree() : repository.readFileTree(newTreeID);
+            join(new TreeMap<>(oldFiles.getStage()), new TreeMap<>(newFiles.getStage()), this::record);
+        } else {
+            diffDirectory((DirectoryTree) oldTree, (DirectoryTree) newTree, null);
+        }
+    }
+
+    private Dumpable readTree(ObjectId treeID) {
+        if (treeID == null) {
+            return new DirectoryTree();
+        }
+        return repository.readObjectFromObjectsByID(treeID, Dumpable.class);
+    }
+
+    private void diffDirectory(DirectoryTree oldTree, DirectoryTree newTree, File dir) {
+        join(oldTree.getFiles(), newTree.getFiles(),
+                (name, oldValue, newValue) -> record(new File(dir, name), oldValue, newValue));
+        join(oldTree.getDirectories(), newTree.getDirectories(),
+                (name, oldValue, newValue) -> diffDirectory(readSubtree(oldValue), readSubtree(newValue),
+                        new File(dir, name)));
+    }
+
+    private DirectoryTree readSubtree(ObjectId treeID) {
+        if (treeID == null) {
+            return new DirectoryTree();
+        }
+        return repository.readObjectFromObjectsByID(treeID, DirectoryTree.class);
+    }
+
+    private void record(File file, ObjectId oldValue, ObjectId newValue) {
+        if (oldValue != null) {
+            before.put(file, oldValue);
+        }
+        if (newValue != null) {
+            after.put(file, newValue);
+        }
+    }
+
+    /** Visits the keys of two sorted maps in order, skipping keys whose values are equal. */
+    private static <K extends Comparable<K>> void join(SortedMap<K, ObjectId> oldMap,
+                                                       SortedMap<K, ObjectId> newMap, JoinVisitor<K> visitor) {
+        Iterator<Map.Entry<K, ObjectId>> oldIt = oldMap.entrySet().iterator();
+        Iterator<Map.Entry<K, ObjectId>> newIt = newMap.entrySet().iterator();
+        Map.Entry<K, ObjectId> oldEntry = oldIt.hasNext() ? oldIt.next() : null;
+        Map.Entry<K, ObjectId> newEntry = newIt.hasNext() ? newIt.next() : null;
+        while (oldEntry != null || newEntry != null) {
+            int c = oldEntry == null ? 1 : newEntry == null ? -1 : oldEntry.getKey().compareTo(newEntry.getKey());
+            if (c < 0) {
+                visitor.visit(oldEntry.getKey(), oldEntry.getValue(), null);
+                oldEntry = oldIt.hasNext() ? oldIt.next() : null;
+            } else if (c > 0) {
+                visitor.visit(newEntry.getKey(), null, newEntry.getValue());
+                newEntry = newIt.hasNext() ? newIt.next() : null;
+            } else {
+                if (!oldEntry.getValue().equals(newEntry.getValue())) {
+                    visitor.visit(oldEntry.getKey(), oldEntry.getValue(), newEntry.getValue());
+                }
+                oldEntry = oldIt.hasNext() ? oldIt.next() : null;
+                newEntry = newIt.hasNext() ? newIt.next() : null;
+            }
+        }
+    }
+
+    /** Returns the changed files as in the old tree. */
+    public FileTree getBefore() {
+        return before;
+    }
+
+    /** Returns the changed files as in the new tree. */
+    public FileTree getAfter() {
+        return after;
+    }
+}
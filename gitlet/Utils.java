@@ -1,6 +1,8 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -8,6 +10,8 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -32,6 +36,9 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** Size of the chunks in which large file contents are streamed. */
+    static final int STREAM_BUFFER_SIZE = 1 << 16;
+
     /* SHA-1 HASH VALUES. */
 
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
@@ -190,25 +197,24 @@ class Utils {
         }
     }
 
-    /** Write OBJ to FILE. */
-    static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
-    }
-
-    /** Write content in src to dest in bytes. */
-    static void writeContentsInBytes(File src, File dest) {
-        writeContents(dest, readContents(src));
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
-    /**
-     * Write OBJ to FILE folder based on the HASHVALUE.
-     * @param file The directory to store blobs, trees, and commits.
-     * @param hashValue The hash value of OBJ.
-     * @param obj The object to store.
-     * */
-    static void writeObject(File file, String hashValue, Serializable obj) {
-        // The folder to store obj. Take the first two characters of hashValue.
-        file = join(file, Repository.getRelFileInObjectsByID(hashValue)); // The file to store obj.
+    /** Write OBJ to FILE. */
+    static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
     }
 
@@ -243,35 +249,6 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
-    /** Returns all files besides files in .gitlet folder
-     * recursively from the specified directory. */
-    static List<File> listFiles(String directoryName) throws IOException {
-        List<File> files = new ArrayList<>();
-        listFiles(directoryName, files);
-        return files;
-    }
-
-    /**
-     * Adds to the files list all files besides files in .gitlet folder
-     * recursively from the specified directory.
-     * Reference: https://stackoverflow.com/questions/14676407/
-     * */
-    static void listFiles(String directoryName, List<File> files) throws IOException {
-        File directory = new File(directoryName);
-
-        // Get all files from a directory.
-        File[] fList = directory.listFiles();
-        if(fList != null)
-            for (File file : fList) {
-                if (file.isFile()) {
-                    file = Repository.relativeSimplePath(Repository.WORK_DIR, file);
-                    files.add(file);
-                } else if (file.isDirectory() && !file.getName().equals(".gitlet")) {
-                    listFiles(file.getAbsolutePath(), files);
-                }
-            }
-    }
-
     /* OTHER FILE UTILITIES */
 
     /** Return the concatenation of FIRST and OTHERS into a File designator,
@@ -328,8 +305,27 @@ class Utils {
         System.out.println();
     }
 
+    /** Returns a writer to standard output that only writes through when it is full or flushed. */
+    static PrintWriter bufferedOutput() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), STREAM_BUFFER_SIZE));
+    }
+
+    /**
+     * Ends the command by throwing a GitletException whose message is composed from MSG and ARGS
+     * as for the String.format method, and which reports a mistake of the user.
+     * The message is printed by whoever runs the command, see {@link Main#main(String[])}.
+     */
     static void exit(String msg, Object... args){
-        System.out.printf(msg, args);
-        System.exit(0);
+        throw new GitletException(String.format(msg, args), true);
+    }
+
+    /** Returns the nearest directory from DIR up that contains .gitlet, or null if there is none. */
+    static File findWorkRoot(File dir) {
+        for (File p = dir; p != null; p = p.getParentFile()) {
+            if (join(p, ".gitlet").isDirectory()) {
+                return p;
+            }
+        }
+        return null;
     }
 }
@@ -0,0 +1,135 @@
+package gitlet;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static gitlet.Utils.*;
+
+/**
+ * Hashes files in the working directory, splitting the files over a fork-join pool
+ * of at most {@code parallelism} threads.
+ * A file whose stat data is the same as recorded in the index is not read,
+ * see {@link FileStat}.
+ * The recorded stat data is only read, so it needs no locking;
+ * updating the index is left to the caller.
+ * Files that are read can also be stored in the object store in the same pass.
+ *
+ * @author Zichuan Wang
+ */
+public class WorkTreeHasher {
+
+    /** Tasks with at most this many files are not split further. */
+    private static final int THRESHOLD = 16;
+
+    /** The working directory. */
+    private final File workDir;
+    /** Maximum number of threads. */
+    private final int parallelism;
+
+    public WorkTreeHasher(File workDir, int parallelism) {
+        this.workDir = workDir;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Returns the stat data, with the hash value of the content, of each file that exists.
+     * The recorded stat data of a file is returned as is if the file is unchanged.
+     *
+     * @param files Paths relative to the working directory.
+     * @param recorded Map from path to the stat data recorded in the index.
+     * */
+    Map<File, FileStat> hash(List<File> files, Map<File, FileStat> recorded) {
+        return hash(files, recorded, null);
+    }
+
+    /**
+     * Returns the stat data, with the hash value of the content, of each file that exists.
+     * The recorded stat data of a file is returned as is if the file is unchanged,
+     * otherwise the file is hashed while it is stored in {@code store}.
+     *
+     * @param files Paths relative to the working directory.
+     * @param recorded Map from path to the stat data recorded in the index.
+     * @param store Where the files that are read are stored, null if they are only hashed.
+     * */
+    Map<File, FileStat> hash(List<File> files, Map<File, FileStat> recorded, ObjectStore store) {
+        FileStat[] results = new FileStat[files.size()];
+        HashTask task = new HashTask(files, recorded, store, results, 0, files.size());
+        if (files.size() <= THRESHOLD || parallelism == 1) {
+            task.compute();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(task);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        Map<File, FileStat> stats = new HashMap<>();
+        for (int i = 0; i < results.length; i += 1) {
+            if (results[i] != null) {
+                stats.put(files.get(i), results[i]);
+            }
+        }
+        return stats;
+    }
+
+    /** Returns the stat data and hash value of a single file, or null if it doesn't exist. */
+    private FileStat hashFile(File file, FileStat recorded, ObjectStore store) {
+        File abs = join(workDir, file.getPath());
+        FileStat stat = FileStat.of(abs);
+        if (stat == null) {
+            return null;
+        }
+        if (stat.sameStat(recorded)) {
+            return recorded;
+        }
+        return stat.withHashValue(store == null ? ObjectId.hash(abs) : store.insert(abs));
+    }
+
+    /** Hashes files[from, to), writing the results into results[from, to). */
+    private class HashTask extends RecursiveAction {
+        private static final long serialVersionUID = -8663828214632785943L;
+
+        private final List<File> files;
+        private final Map<File, FileStat> recorded;
+        private final ObjectStore store;
+        private final FileStat[] results;
+        private final int from;
+        private final int to;
+
+        HashTask(List<File> files, Map<File, FileStat> recorded, ObjectStore store,
+                 FileStat[] results, int from, int to) {
+            this.files = files;
+            this.recorded = recorded;
+            this.store = store;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i += 1) {
+                    File file = files.get(i);
+                    results[i] = hashFile(file, recorded.get(file), store);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            HashTask left = new HashTask(files, recorded, store, results, from, mid);
+            HashTask right = new HashTask(files, recorded, store, results, mid, to);
+            if (parallelism == 1) {
+                // not in a pool, where invokeAll would fork to the common pool
+                left.compute();
+                right.compute();
+            } else {
+                invokeAll(left, right);
+            }
+        }
+    }
+}
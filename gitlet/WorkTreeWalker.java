@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Lists all plain files in the working directory, skipping .gitlet directories.
+ * Each directory is listed by its own fork-join task, so subdirectories are walked in parallel
+ * on at most {@code parallelism} threads.
+ * Paths are built relative to the root by appending names,
+ * so only the root is canonicalized.
+ *
+ * @author Zichuan Wang
+ */
+public class WorkTreeWalker {
+
+    /** Name of directories that are not walked. */
+    private static final String GITLET_DIR_NAME = ".gitlet";
+
+    /** The canonical working directory. */
+    private final Path root;
+    /** Maximum number of threads. */
+    private final int parallelism;
+
+    public WorkTreeWalker(File workDir, int parallelism) {
+        try {
+            this.root = workDir.getCanonicalFile().toPath();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /** Returns all plain files, as paths relative to the working directory, in no particular order. */
+    List<File> walk() {
+        ListTask task = new ListTask(null);
+        if (parallelism == 1) {
+            return task.compute();
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(task);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Lists the plain files under one directory. */
+    private class ListTask extends RecursiveTask<List<File>> {
+        private static final long serialVersionUID = 3015622914424129177L;
+
+        /** The directory relative to the root, null for the root itself. */
+        private final File dir;
+
+        ListTask(File dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected List<File> compute() {
+            List<File> files = new ArrayList<>();
+            List<ListTask> subtasks = new ArrayList<>();
+            Path abs = dir == null ? root : root.resolve(dir.getPath());
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(abs)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (IOException excp) {
+                        // deleted meanwhile, or a broken link
+                        continue;
+                    }
+                    String name = entry.getFileName().toString();
+                    if (attrs.isRegularFile()) {
+                        files.add(new File(dir, name));
+                    } else if (attrs.isDirectory() && !name.equals(GITLET_DIR_NAME)) {
+                        ListTask subtask = new ListTask(new File(dir, name));
+                        if (parallelism > 1) {
+                            subtask.fork();
+                        }
+                        subtasks.add(subtask);
+                    }
+                }
+            } catch (IOException excp) {
+                // not readable, keep what was listed
+            }
+            for (ListTask subtask : subtasks) {
+                files.addAll(parallelism > 1 ? subtask.join() : subtask.compute());
+            }
+            return files;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static gitlet.Utils.*;
+
+/**
+ * Writes blobs from the object store into files in the working directory,
+ * splitting the files over a fork-join pool of at most {@code parallelism} threads.
+ * The parent directories are created up front, so the workers only write files.
+ * A file that can't be written doesn't stop the others;
+ * all failures are reported together once every file was tried.
+ *
+ * @author Zichuan Wang
+ */
+public class WorkTreeWriter {
+
+    /** Tasks with at most this many files are not split further. */
+    private static final int THRESHOLD = 4;
+
+    /** The working directory. */
+    private final File workDir;
+    /** Where the blobs are read from. */
+    private final ObjectStore objectStore;
+    /** Maximum number of threads. */
+    private final int parallelism;
+
+    public WorkTreeWriter(File workDir, ObjectStore objectStore, int parallelism) {
+        this.workDir = workDir;
+        this.objectStore = objectStore;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Writes the content of each blob to its file, overwriting the file if it exists.
+     * Throws GitletException listing the files that couldn't be written.
+     *
+     * @param files Map from path relative to the working directory to the hash value of its blob.
+     * */
+    void write(Map<File, ObjectId> files) {
+        SortedMap<File, String> failures = new ConcurrentSkipListMap<>();
+        List<File> toWrite = new ArrayList<>();
+        for (File dir : new TreeSet<>(parentsOf(files.keySet()))) {
+            File abs = join(workDir, dir.getPath());
+            if (!abs.isDirectory() && !abs.mkdirs()) {
+                failures.put(dir, "cannot create directory");
+            }
+        }
+        for (File file : new TreeMap<>(files).keySet()) {
+            if (file.getParentFile() == null || !failures.containsKey(file.getParentFile())) {
+                toWrite.add(file);
+            }
+        }
+
+        WriteTask task = new WriteTask(toWrite, files, failures, 0, toWrite.size());
+        if (toWrite.size() <= THRESHOLD || parallelism == 1) {
+            task.compute();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(task);
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            StringBuilder report = new StringBuilder();
+            for (Map.Entry<File, String> e : failures.entrySet()) {
+                report.append(String.format("%n  %s: %s", e.getKey(), e.getValue()));
+            }
+            throw error("Failed to write %d path(s):%s", failures.size(), report);
+        }
+    }
+
+    /** Returns the parent directories of the files, excluding the working directory itself. */
+    private static List<File> parentsOf(Iterable<File> files) {
+        List<File> parents = new ArrayList<>();
+        for (File file : files) {
+            if (file.getParentFile() != null) {
+                parents.add(file.getParentFile());
+            }
+        }
+        return parents;
+    }
+
+    /** Writes a single file, recording the reason if it fails. */
+    private void writeFile(File file, ObjectId hashValue, Map<File, String> failures) {
+        File abs = join(workDir, file.getPath());
+        try {
+            if (abs.isDirectory()) {
+                failures.put(file, "cannot overwrite directory");
+                return;
+            }
+            objectStore.copyTo(hashValue, abs);
+        } catch (IllegalArgumentException | GitletException excp) {
+            failures.put(file, String.valueOf(excp.getMessage()));
+        }
+    }
+
+    /** Writes files[from, to). */
+    private class WriteTask extends RecursiveAction {
+        private static final long serialVersionUID = 1607152582913827585L;
+
+        private final List<File> files;
+        private final Map<File, ObjectId> hashValues;
+        private final Map<File, String> failures;
+        private final int from;
+        private final int to;
+
+        WriteTask(List<File> files, Map<File, ObjectId> hashValues, Map<File, String> failures, int from, int to) {
+            this.files = files;
+            this.hashValues = hashValues;
+            this.failures = failures;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i += 1) {
+                    File file = files.get(i);
+                    writeFile(file, hashValues.get(file), failures);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            WriteTask left = new WriteTask(files, hashValues, failures, from, mid);
+            WriteTask right = new WriteTask(files, hashValues, failures, mid, to);
+            if (parallelism == 1) {
+                // not in a pool, where invokeAll would fork to the common pool
+                left.compute();
+                right.compute();
+            } else {
+                invokeAll(left, right);
+            }
+        }
+    }
+}
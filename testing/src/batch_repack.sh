@@ -0,0 +1,8 @@
+# Feeds commands to a batch session, and repacks from another process in the middle of the session.
+before=$(cat .gitlet/refs/heads/master)
+printf 'add wug.txt\ncommit "before repack"\n'
+while [ "$(cat .gitlet/refs/heads/master)" = "$before" ]; do
+    sleep 0.1
+done
+java gitlet.Main repack > /dev/null
+printf 'rm wug.txt\ncheckout -- wug.txt\nadd notwug.txt\ncommit "after repack"\n'